@@ -0,0 +1,111 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package net.minecraftforge.fart;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.minecraftforge.fart.api.Transformer;
+import net.minecraftforge.fart.api.Transformer.ClassEntry;
+import net.minecraftforge.fart.internal.InheritanceImpl;
+import net.minecraftforge.fart.internal.Log;
+import net.minecraftforge.fart.internal.SyntheticJar;
+import net.minecraftforge.srgutils.IMappingFile;
+
+/**
+ * Runs a single transformer over every class in a jar, so each one's cost can be compared on its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FixerBenchmark {
+    private static final int CLASSES = 1000;
+
+    @Param({"rename", "ann", "records", "ids", "src", "lines"})
+    public String transformer;
+
+    private Transformer instance;
+    private List<ClassEntry> entries;
+
+    @Setup
+    public void setup() throws IOException {
+        SyntheticJar jar = SyntheticJar.builder().classes(CLASSES).depth(8).build();
+        entries = new ArrayList<>(CLASSES);
+        for (Map.Entry<String, byte[]> e : jar.getClasses().entrySet())
+            entries.add(ClassEntry.create(e.getKey() + ".class", Transformer.Entry.STABLE_TIMESTAMP, e.getValue()));
+        Log.setLevel(Log.Level.QUIET);
+
+        switch (transformer) {
+            case "rename":
+                InheritanceImpl inh = new InheritanceImpl();
+                jar.getClasses().forEach(inh::addClass);
+                IMappingFile map = IMappingFile.load(new ByteArrayInputStream(jar.getMapping().getBytes(StandardCharsets.UTF_8)));
+                instance = Transformer.createRenamer(inh, map);
+                break;
+            case "ann":     instance = new ParameterAnnotationFixer(); break;
+            case "records": instance = new RecordFixer(); break;
+            case "ids":     instance = new IdentifierFixer(IdentifierFixer.Config.ALL); break;
+            case "src":     instance = new SourceFixer(SourceFixer.Config.JAVA); break;
+            case "lines":
+                File lines = Files.createTempFile("fart-bench-lines", ".jar").toFile();
+                try {
+                    jar.writeLineMap(lines.toPath());
+                    instance = new FFLineFixer(lines);
+                } finally {
+                    lines.delete();
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown transformer: " + transformer);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CLASSES)
+    public void process(Blackhole bh) {
+        for (ClassEntry entry : entries)
+            bh.consume(entry.process(instance));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package net.minecraftforge.fart.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Class lookups against a library jar. The cold version indexes the jar and parses every class,
+ * the warm one only hits the cache. A bounded cache smaller than the jar shows the cost of evictions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class InheritanceBenchmark {
+    private static final int CLASSES = 5000;
+
+    @Param({"0", "1024"})
+    public int cacheSize;
+
+    private File library;
+    private List<String> classes;
+    private InheritanceImpl warm;
+
+    @Setup
+    public void setup() throws IOException {
+        SyntheticJar jar = SyntheticJar.builder().classes(CLASSES).depth(8).build();
+        library = Files.createTempFile("fart-bench-lib", ".jar").toFile();
+        jar.writeJar(library.toPath());
+        classes = jar.getClassNames();
+
+        warm = new InheritanceImpl(cacheSize);
+        warm.addLibrary(library);
+        classes.forEach(warm::getClass);
+    }
+
+    @TearDown
+    public void tearDown() {
+        library.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CLASSES)
+    public void cold(Blackhole bh) {
+        InheritanceImpl inh = new InheritanceImpl(cacheSize);
+        inh.addLibrary(library);
+        for (String cls : classes)
+            bh.consume(inh.getClass(cls));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CLASSES)
+    public void warm(Blackhole bh) {
+        for (String cls : classes)
+            bh.consume(warm.getClass(cls));
+    }
+}
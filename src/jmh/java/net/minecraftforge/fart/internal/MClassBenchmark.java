@@ -0,0 +1,80 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package net.minecraftforge.fart.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.minecraftforge.srgutils.IMappingFile;
+
+/**
+ * Builds the remapper's view of every class from scratch, with the class files already parsed.
+ * Deep hierarchies are where copying inherited members used to cost the most, so run this with
+ * {@code -prof gc} and compare {@code gc.alloc.rate.norm} to see how much each class costs to build.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MClassBenchmark {
+    @Param({"1", "16", "64"})
+    public int depth;
+
+    private InheritanceImpl inh;
+    private IMappingFile map;
+    private List<String> classes;
+
+    @Setup
+    public void setup() throws IOException {
+        Log.setLevel(Log.Level.QUIET); // Propagating into unmapped overrides logs every method.
+        SyntheticJar jar = SyntheticJar.builder().classes(2048).depth(depth).methods(16).build();
+        inh = new InheritanceImpl();
+        jar.getClasses().forEach(inh::addClass);
+        map = IMappingFile.load(new ByteArrayInputStream(jar.getMapping().getBytes(StandardCharsets.UTF_8)));
+        classes = jar.getClassNames();
+        classes.forEach(inh::getClass);
+    }
+
+    @Benchmark
+    public EnhancedRemapper resolve() {
+        EnhancedRemapper remapper = new EnhancedRemapper(inh, map);
+        for (String cls : classes)
+            remapper.resolve(cls);
+        return remapper;
+    }
+}
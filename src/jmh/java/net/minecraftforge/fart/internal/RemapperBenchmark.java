@@ -0,0 +1,130 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package net.minecraftforge.fart.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.minecraftforge.srgutils.IMappingFile;
+
+/**
+ * Member and class lookups on a remapper that has already resolved every class, which is what the
+ * workers spend most of their time doing. The threaded versions show how well lookups scale.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RemapperBenchmark {
+    private static final int CLASSES = 2000;
+    private static final int FIELDS = 4;
+    private static final int METHODS = 8;
+
+    @Param({"1", "8"})
+    public int depth;
+
+    private EnhancedRemapper remapper;
+    private String[] owners;
+    private String[] fields;
+    private String[] methods;
+
+    @Setup
+    public void setup() throws IOException {
+        Log.setLevel(Log.Level.QUIET); // Propagating into unmapped overrides logs every method.
+        SyntheticJar jar = SyntheticJar.builder().classes(CLASSES).depth(depth).fields(FIELDS).methods(METHODS).build();
+        InheritanceImpl inh = new InheritanceImpl();
+        jar.getClasses().forEach(inh::addClass);
+        IMappingFile map = IMappingFile.load(new ByteArrayInputStream(jar.getMapping().getBytes(StandardCharsets.UTF_8)));
+        remapper = new EnhancedRemapper(inh, map);
+
+        List<String> names = jar.getClassNames();
+        owners = names.toArray(new String[names.size()]);
+        fields = new String[owners.length];
+        methods = new String[owners.length];
+        for (int x = 0; x < owners.length; x++) {
+            fields[x] = "field" + (x % FIELDS);
+            methods[x] = "method" + (x % METHODS);
+            remapper.resolve(owners[x]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CLASSES)
+    public void mapMethodName(Blackhole bh) {
+        for (int x = 0; x < owners.length; x++)
+            bh.consume(remapper.mapMethodName(owners[x], methods[x], "(I)I"));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    @OperationsPerInvocation(CLASSES)
+    public void mapMethodNameThreaded(Blackhole bh) {
+        mapMethodName(bh);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CLASSES)
+    public void mapFieldName(Blackhole bh) {
+        for (int x = 0; x < owners.length; x++)
+            bh.consume(remapper.mapFieldName(owners[x], fields[x], "I"));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    @OperationsPerInvocation(CLASSES)
+    public void mapFieldNameThreaded(Blackhole bh) {
+        mapFieldName(bh);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CLASSES)
+    public void map(Blackhole bh) {
+        for (int x = 0; x < owners.length; x++)
+            bh.consume(remapper.map(owners[x]));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    @OperationsPerInvocation(CLASSES)
+    public void mapThreaded(Blackhole bh) {
+        map(bh);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package net.minecraftforge.fart.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.minecraftforge.fart.api.Renamer;
+
+/**
+ * A full run, from reading the input jar to writing the renamed output, the same way the command line does it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class RenamerBenchmark {
+    @Param({"1", "4"})
+    public int threads;
+
+    private File input;
+    private File output;
+    private File mapping;
+
+    @Setup
+    public void setup() throws IOException {
+        SyntheticJar jar = SyntheticJar.builder().classes(2000).depth(8).resources(200).build();
+        input = Files.createTempFile("fart-bench-in", ".jar").toFile();
+        output = Files.createTempFile("fart-bench-out", ".jar").toFile();
+        mapping = Files.createTempFile("fart-bench", ".srg").toFile();
+        jar.writeJar(input.toPath());
+        jar.writeMapping(mapping.toPath());
+        Log.setLevel(Log.Level.QUIET);
+    }
+
+    @TearDown
+    public void tearDown() {
+        input.delete();
+        output.delete();
+        mapping.delete();
+    }
+
+    @Benchmark
+    public void run() {
+        Renamer.builder()
+            .input(input)
+            .output(output)
+            .map(mapping)
+            .threads(threads)
+            .build()
+            .run();
+    }
+}
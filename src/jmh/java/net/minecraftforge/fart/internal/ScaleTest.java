@@ -0,0 +1,178 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package net.minecraftforge.fart.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import net.minecraftforge.fart.api.Renamer;
+
+/**
+ * Renames generated jars at the sizes we run in production, and checks the throughput and peak heap against stored baselines.
+ *
+ * <p>Peak heap is the sum of each heap pool's peak during a run, so it depends on the heap size and collector.
+ * Only compare numbers taken with the same JVM options, the Gradle task pins them. Baselines are machine
+ * specific, regenerate them with {@code --update} when moving to a different machine.</p>
+ */
+public class ScaleTest {
+    private static final Map<String, SyntheticJar.Builder> SCENARIOS = new LinkedHashMap<>();
+    static {
+        SCENARIOS.put("wide", SyntheticJar.builder().classes(20000).depth(4).resources(1000));
+        SCENARIOS.put("deep", SyntheticJar.builder().classes(10000).depth(64).methods(16));
+        SCENARIOS.put("mixed", SyntheticJar.builder().classes(10000).depth(8).interfaces(100)
+            .innerClasses(true).lambdas(true).records(1000).enums(1000).libraries(2)
+            .resources(2000).binaryResources(0.25));
+    }
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<File> baselinesO = parser.accepts("baselines", "Properties file with the expected results").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> workO = parser.accepts("work", "Directory to generate the jars in").withRequiredArg().ofType(File.class).required();
+        OptionSpec<String> scenarioO = parser.accepts("scenario", "Scenario to run, can be specified multiple times, defaults to all. " + SCENARIOS.keySet()).withRequiredArg();
+        OptionSpec<Integer> runsO = parser.accepts("runs", "Measured runs of each scenario, after one warmup").withRequiredArg().ofType(Integer.class).defaultsTo(3);
+        OptionSpec<Integer> threadsO = parser.accepts("threads", "Number of threads to rename with").withRequiredArg().ofType(Integer.class).defaultsTo(Runtime.getRuntime().availableProcessors());
+        OptionSpec<Double> toleranceO = parser.accepts("tolerance", "How much worse than the baseline a result can be, 0.25 is 25%").withRequiredArg().ofType(Double.class).defaultsTo(0.25);
+        OptionSpec<Void> updateO = parser.accepts("update", "Stores the results as the new baselines instead of checking them");
+        OptionSet options = parser.parse(args);
+
+        File baselineFile = options.valueOf(baselinesO);
+        Properties baselines = new Properties();
+        if (baselineFile.exists()) {
+            try (InputStream is = Files.newInputStream(baselineFile.toPath())) {
+                baselines.load(is);
+            }
+        }
+
+        List<String> scenarios = options.has(scenarioO) ? options.valuesOf(scenarioO) : new ArrayList<>(SCENARIOS.keySet());
+        int runs = options.valueOf(runsO);
+        int threads = options.valueOf(threadsO);
+        double tolerance = options.valueOf(toleranceO);
+        Log.setLevel(Log.Level.QUIET);
+
+        List<String> failures = new ArrayList<>();
+        for (String name : scenarios) {
+            SyntheticJar.Builder config = SCENARIOS.get(name);
+            if (config == null)
+                throw new IllegalArgumentException("Unknown scenario: " + name + " expected one of " + SCENARIOS.keySet());
+
+            Path dir = options.valueOf(workO).toPath().resolve(name);
+            Files.createDirectories(dir);
+            int classes = generate(config, dir);
+
+            run(dir, threads); // Warmup
+            double throughput = 0;
+            long peak = 0;
+            for (int x = 0; x < runs; x++) {
+                System.gc();
+                resetPeaks();
+                long start = System.nanoTime();
+                run(dir, threads);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                throughput = Math.max(throughput, classes / seconds);
+                peak = Math.max(peak, getPeak());
+            }
+
+            long peakMB = peak >> 20;
+            System.out.println(String.format(Locale.ENGLISH, "%-8s %7d classes  %9.0f classes/s  %6d MB peak heap", name, classes, throughput, peakMB));
+
+            if (options.has(updateO)) {
+                baselines.setProperty(name + ".throughput", String.format(Locale.ENGLISH, "%.0f", throughput));
+                baselines.setProperty(name + ".peakHeapMB", Long.toString(peakMB));
+                continue;
+            }
+
+            String expectedThroughput = baselines.getProperty(name + ".throughput");
+            String expectedPeak = baselines.getProperty(name + ".peakHeapMB");
+            if (expectedThroughput == null || expectedPeak == null) {
+                failures.add(name + ": no baseline, run with --update to store one");
+                continue;
+            }
+            if (throughput < Double.parseDouble(expectedThroughput) * (1 - tolerance))
+                failures.add(String.format(Locale.ENGLISH, "%s: throughput %.0f classes/s is below the baseline of %s", name, throughput, expectedThroughput));
+            if (peakMB > Long.parseLong(expectedPeak) * (1 + tolerance))
+                failures.add(String.format(Locale.ENGLISH, "%s: peak heap %d MB is above the baseline of %s MB", name, peakMB, expectedPeak));
+        }
+
+        if (options.has(updateO)) {
+            try (OutputStream os = Files.newOutputStream(baselineFile.toPath())) {
+                baselines.store(os, "Scale test baselines, see ScaleTest");
+            }
+            System.out.println("Baselines written to " + baselineFile);
+        } else if (!failures.isEmpty()) {
+            failures.forEach(System.out::println);
+            throw new IllegalStateException(failures.size() + " scale test regressions");
+        }
+    }
+
+    private static int generate(SyntheticJar.Builder config, Path dir) throws IOException {
+        SyntheticJar jar = config.build();
+        jar.writeJar(dir.resolve("input.jar"));
+        jar.writeMapping(dir.resolve("mapping.srg"));
+        for (int x = 0; x < jar.getLibraryCount(); x++)
+            jar.writeLibrary(x, dir.resolve("library" + x + ".jar"));
+        return jar.getClasses().size();
+    }
+
+    private static void run(Path dir, int threads) throws IOException {
+        Renamer.Builder builder = Renamer.builder()
+            .input(dir.resolve("input.jar").toFile())
+            .output(dir.resolve("output.jar").toFile())
+            .map(dir.resolve("mapping.srg").toFile())
+            .threads(threads);
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(p -> p.getFileName().toString().startsWith("library")).forEach(p -> builder.lib(p.toFile()));
+        }
+        builder.build().run();
+    }
+
+    private static void resetPeaks() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                pool.resetPeakUsage();
+        }
+    }
+
+    private static long getPeak() {
+        long ret = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                ret += pool.getPeakUsage().getUsed();
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,616 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package net.minecraftforge.fart.internal;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+/**
+ * Generates a jar of classes to rename, along with library jars and a matching SRG mapping, so benchmarks and scale tests don't need any real inputs.
+ *
+ * <p>Classes are laid out in chains of {@code depth} classes, each extending the one before it. Every class
+ * declares the same fields and methods, so each method overrides the one in its parent. Only the root of a
+ * chain has its members in the mapping, everything below it relies on propagation. Each method reads a field
+ * and calls the next method, which gives the renamer some references to follow.</p>
+ *
+ * <p>Optionally the roots extend classes from the library jars and implement interfaces whose method is
+ * mapped instead of the root's, and every chain class can get an inner class and a lambda. Records and enums
+ * are generated on their own, outside the chains.</p>
+ */
+public class SyntheticJar {
+    private static final String OBJECT = "java/lang/Object";
+    private static final String LIBRARY_CLASSES = "net/synthetic/lib";
+    private static final String LAMBDA_TYPE = "java/util/function/IntUnaryOperator";
+    private static final Handle METAFACTORY = new Handle(H_INVOKESTATIC, "java/lang/invoke/LambdaMetafactory", "metafactory",
+        "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;", false);
+
+    private final Builder config;
+    private final Map<String, byte[]> classes = new LinkedHashMap<>();
+    private final Map<String, byte[]> resources = new LinkedHashMap<>();
+    private final List<Map<String, byte[]>> libraries = new ArrayList<>();
+    private final StringBuilder mappedClasses = new StringBuilder();
+    private final StringBuilder mappedMembers = new StringBuilder();
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private SyntheticJar(Builder config) {
+        this.config = config;
+
+        for (int x = 0; x < config.libraries; x++) {
+            Map<String, byte[]> lib = new LinkedHashMap<>();
+            for (int y = 0; y < config.libraryClasses; y++) {
+                String name = LIBRARY_CLASSES + x + "/Base" + y;
+                lib.put(name, createClass(name, OBJECT, null, false, false));
+            }
+            libraries.add(lib);
+        }
+
+        for (int x = 0; x < config.interfaces; x++)
+            createInterface(x);
+        for (int x = 0; x < config.classes; x++)
+            createChainClass(x);
+        for (int x = 0; x < config.records; x++)
+            createRecord(x);
+        for (int x = 0; x < config.enums; x++)
+            createEnum(x);
+
+        createResources();
+    }
+
+    public List<String> getClassNames() {
+        return new ArrayList<>(classes.keySet());
+    }
+
+    /**
+     * @return The bytecode of each class, by internal name.
+     */
+    public Map<String, byte[]> getClasses() {
+        return Collections.unmodifiableMap(classes);
+    }
+
+    public Map<String, byte[]> getResources() {
+        return Collections.unmodifiableMap(resources);
+    }
+
+    public int getLibraryCount() {
+        return libraries.size();
+    }
+
+    /**
+     * @return The mapping in SRG format.
+     */
+    public String getMapping() {
+        return mappedClasses.toString() + mappedMembers;
+    }
+
+    private String getClassName(int idx) {
+        return "net/synthetic/p" + (idx / 100) + "/Class" + idx;
+    }
+
+    private String getMappedName(int idx) {
+        return "net/synthetic/mapped/p" + (idx / 100) + "/Renamed" + idx;
+    }
+
+    private void mapClass(String name, String mapped) {
+        mappedClasses.append("CL: ").append(name).append(' ').append(mapped).append('\n');
+    }
+
+    private void mapField(String owner, String name, String mappedOwner, String mapped) {
+        mappedMembers.append("FD: ").append(owner).append('/').append(name).append(' ').append(mappedOwner).append('/').append(mapped).append('\n');
+    }
+
+    // The descriptors we map never reference our own classes, so they're the same on both sides.
+    private void mapMethod(String owner, String name, String desc, String mappedOwner, String mapped) {
+        mappedMembers.append("MD: ").append(owner).append('/').append(name).append(' ').append(desc).append(' ')
+            .append(mappedOwner).append('/').append(mapped).append(' ').append(desc).append('\n');
+    }
+
+    private void createInterface(int idx) {
+        String name = "net/synthetic/api/Iface" + idx;
+        String mapped = "net/synthetic/mapped/api/Api" + idx;
+        mapClass(name, mapped);
+
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(V1_8, ACC_PUBLIC | ACC_INTERFACE | ACC_ABSTRACT, name, null, OBJECT, null);
+        if (config.methods > 0) {
+            cw.visitMethod(ACC_PUBLIC | ACC_ABSTRACT, "method0", "(I)I", null, null).visitEnd();
+            mapMethod(name, "method0", "(I)I", mapped, "api_" + idx);
+        }
+        cw.visitEnd();
+        classes.put(name, cw.toByteArray());
+    }
+
+    private void createChainClass(int idx) {
+        String name = getClassName(idx);
+        String mapped = getMappedName(idx);
+        int chain = idx / config.depth;
+        boolean root = idx % config.depth == 0;
+        mapClass(name, mapped);
+
+        String parent = getClassName(idx - 1);
+        String iface = null;
+        if (root) {
+            int libClasses = config.libraries * config.libraryClasses;
+            parent = libClasses == 0 ? OBJECT : LIBRARY_CLASSES + (chain % config.libraries) + "/Base" + ((chain / config.libraries) % config.libraryClasses);
+            if (config.interfaces > 0 && config.methods > 0)
+                iface = "net/synthetic/api/Iface" + (chain % config.interfaces);
+
+            for (int x = 0; x < config.fields; x++)
+                mapField(name, "field" + x, mapped, "f_" + idx + '_' + x);
+            // The interface's mapping is propagated to method0, so don't name it here.
+            for (int x = iface == null ? 0 : 1; x < config.methods; x++)
+                mapMethod(name, "method" + x, "(I)I", mapped, "m_" + idx + '_' + x);
+        }
+
+        classes.put(name, createClass(name, parent, iface, config.innerClasses, config.lambdas));
+        if (config.innerClasses) {
+            mapClass(name + "$Inner", mapped + "$Inner");
+            createInner(name);
+        }
+    }
+
+    private byte[] createClass(String name, String parent, String iface, boolean inner, boolean lambda) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_8, ACC_PUBLIC | ACC_SUPER, name, null, parent, iface == null ? null : new String[] { iface });
+        cw.visitSource(name.substring(name.lastIndexOf('/') + 1) + ".java", null);
+        if (inner)
+            cw.visitInnerClass(name + "$Inner", name, "Inner", ACC_PUBLIC);
+
+        for (int x = 0; x < config.fields; x++)
+            cw.visitField(ACC_PROTECTED, "field" + x, "I", null, null).visitEnd();
+
+        int line = 1;
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        Label start = new Label();
+        mv.visitLabel(start);
+        mv.visitLineNumber(line++, start);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, parent, "<init>", "()V", false);
+        mv.visitInsn(RETURN);
+        Label end = new Label();
+        mv.visitLabel(end);
+        mv.visitLocalVariable("this", 'L' + name + ';', null, start, end, 0);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        for (int x = 0; x < config.methods; x++) {
+            mv = cw.visitMethod(ACC_PUBLIC, "method" + x, "(I)I", null, null);
+            mv.visitCode();
+            start = new Label();
+            mv.visitLabel(start);
+            mv.visitLineNumber(line++, start);
+            mv.visitVarInsn(ILOAD, 1);
+            if (config.fields > 0) {
+                mv.visitVarInsn(ALOAD, 0);
+                mv.visitFieldInsn(GETFIELD, name, "field" + (x % config.fields), "I");
+                mv.visitInsn(IADD);
+            }
+            if (x + 1 < config.methods) {
+                mv.visitVarInsn(ISTORE, 1);
+                mv.visitVarInsn(ALOAD, 0);
+                mv.visitVarInsn(ILOAD, 1);
+                mv.visitMethodInsn(INVOKEVIRTUAL, name, "method" + (x + 1), "(I)I", false);
+            }
+            mv.visitInsn(IRETURN);
+            end = new Label();
+            mv.visitLabel(end);
+            mv.visitLocalVariable("this", 'L' + name + ';', null, start, end, 0);
+            // Some invalid names, so the identifier fixer has something to do.
+            mv.visitLocalVariable(x % 2 == 0 ? "value" : "\u2603", "I", null, start, end, 1);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+
+        if (lambda && config.methods > 0) {
+            // IntUnaryOperator lambda() { return x -> this.method0(x); }
+            String impl = "lambda$lambda$0";
+            mv = cw.visitMethod(ACC_PUBLIC, "lambda", "()L" + LAMBDA_TYPE + ';', null, null);
+            mv.visitCode();
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitInvokeDynamicInsn("applyAsInt", "(L" + name + ";)L" + LAMBDA_TYPE + ';', METAFACTORY,
+                Type.getType("(I)I"), new Handle(H_INVOKESPECIAL, name, impl, "(I)I", false), Type.getType("(I)I"));
+            mv.visitInsn(ARETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+
+            mv = cw.visitMethod(ACC_PRIVATE | ACC_SYNTHETIC, impl, "(I)I", null, null);
+            mv.visitCode();
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitVarInsn(ILOAD, 1);
+            mv.visitMethodInsn(INVOKEVIRTUAL, name, "method0", "(I)I", false);
+            mv.visitInsn(IRETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private void createInner(String outer) {
+        String name = outer + "$Inner";
+        String outerDesc = 'L' + outer + ';';
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_8, ACC_PUBLIC | ACC_SUPER, name, null, OBJECT, null);
+        cw.visitInnerClass(name, outer, "Inner", ACC_PUBLIC);
+        cw.visitField(ACC_FINAL | ACC_SYNTHETIC, "this$0", outerDesc, null, null).visitEnd();
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", '(' + outerDesc + ")V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitFieldInsn(PUTFIELD, name, "this$0", outerDesc);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, OBJECT, "<init>", "()V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(ACC_PUBLIC, "get", "()I", null, null);
+        mv.visitCode();
+        if (config.methods > 0) {
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, name, "this$0", outerDesc);
+            mv.visitInsn(ICONST_0);
+            mv.visitMethodInsn(INVOKEVIRTUAL, outer, "method0", "(I)I", false);
+        } else {
+            mv.visitInsn(ICONST_0);
+        }
+        mv.visitInsn(IRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        classes.put(name, cw.toByteArray());
+    }
+
+    private void createRecord(int idx) {
+        String name = "net/synthetic/records/Record" + idx;
+        String mapped = "net/synthetic/mapped/records/Data" + idx;
+        int components = Math.max(1, config.fields);
+        mapClass(name, mapped);
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V16, ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_RECORD, name, null, "java/lang/Record", null);
+        StringBuilder ctor = new StringBuilder("(");
+        for (int x = 0; x < components; x++) {
+            cw.visitRecordComponent("value" + x, "I", null).visitEnd();
+            cw.visitField(ACC_PRIVATE | ACC_FINAL, "value" + x, "I", null, null).visitEnd();
+            ctor.append('I');
+            mapField(name, "value" + x, mapped, "component" + x);
+            mapMethod(name, "value" + x, "()I", mapped, "component" + x);
+        }
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", ctor.append(")V").toString(), null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Record", "<init>", "()V", false);
+        for (int x = 0; x < components; x++) {
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitVarInsn(ILOAD, x + 1);
+            mv.visitFieldInsn(PUTFIELD, name, "value" + x, "I");
+        }
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        for (int x = 0; x < components; x++) {
+            mv = cw.visitMethod(ACC_PUBLIC, "value" + x, "()I", null, null);
+            mv.visitCode();
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, name, "value" + x, "I");
+            mv.visitInsn(IRETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+
+        cw.visitEnd();
+        classes.put(name, cw.toByteArray());
+    }
+
+    private void createEnum(int idx) {
+        String name = "net/synthetic/enums/Enum" + idx;
+        String mapped = "net/synthetic/mapped/enums/Kind" + idx;
+        String desc = 'L' + name + ';';
+        String array = '[' + desc;
+        int constants = Math.max(1, config.fields);
+        mapClass(name, mapped);
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_ENUM, name, "Ljava/lang/Enum<" + desc + ">;", "java/lang/Enum", null);
+        for (int x = 0; x < constants; x++) {
+            cw.visitField(ACC_PUBLIC | ACC_STATIC | ACC_FINAL | ACC_ENUM, "CONSTANT_" + x, desc, null, null).visitEnd();
+            mapField(name, "CONSTANT_" + x, mapped, "VALUE_" + x);
+        }
+        cw.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL | ACC_SYNTHETIC, "$VALUES", array, null, null).visitEnd();
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "values", "()" + array, null, null);
+        mv.visitCode();
+        mv.visitFieldInsn(GETSTATIC, name, "$VALUES", array);
+        mv.visitMethodInsn(INVOKEVIRTUAL, array, "clone", "()Ljava/lang/Object;", false);
+        mv.visitTypeInsn(CHECKCAST, array);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "valueOf", "(Ljava/lang/String;)" + desc, null, null);
+        mv.visitCode();
+        mv.visitLdcInsn(Type.getObjectType(name));
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESTATIC, "java/lang/Enum", "valueOf", "(Ljava/lang/Class;Ljava/lang/String;)Ljava/lang/Enum;", false);
+        mv.visitTypeInsn(CHECKCAST, name);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(ACC_PRIVATE, "<init>", "(Ljava/lang/String;I)V", "()V", null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitVarInsn(ILOAD, 2);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Enum", "<init>", "(Ljava/lang/String;I)V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+        mv.visitCode();
+        for (int x = 0; x < constants; x++) {
+            mv.visitTypeInsn(NEW, name);
+            mv.visitInsn(DUP);
+            mv.visitLdcInsn("CONSTANT_" + x);
+            mv.visitLdcInsn(x);
+            mv.visitMethodInsn(INVOKESPECIAL, name, "<init>", "(Ljava/lang/String;I)V", false);
+            mv.visitFieldInsn(PUTSTATIC, name, "CONSTANT_" + x, desc);
+        }
+        mv.visitLdcInsn(constants);
+        mv.visitTypeInsn(ANEWARRAY, name);
+        for (int x = 0; x < constants; x++) {
+            mv.visitInsn(DUP);
+            mv.visitLdcInsn(x);
+            mv.visitFieldInsn(GETSTATIC, name, "CONSTANT_" + x, desc);
+            mv.visitInsn(AASTORE);
+        }
+        mv.visitFieldInsn(PUTSTATIC, name, "$VALUES", array);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        classes.put(name, cw.toByteArray());
+    }
+
+    private void createResources() {
+        resources.put("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\nCreated-By: FART SyntheticJar\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+        if (config.interfaces > 0 && config.classes > 0 && config.methods > 0) {
+            // Services name classes in resources, which is the usual reason a resource needs renaming.
+            StringBuilder buf = new StringBuilder();
+            for (int x = 0; x < config.classes; x += config.depth * config.interfaces)
+                buf.append(getClassName(x).replace('/', '.')).append('\n');
+            resources.put("META-INF/services/net.synthetic.api.Iface0", buf.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        Random rand = new Random(config.seed);
+        for (int x = 0; x < config.resources; x++) {
+            boolean binary = rand.nextDouble() < config.binaryResources;
+            byte[] data = new byte[config.resourceSize == 0 ? 0 : rand.nextInt(config.resourceSize)];
+            if (binary) {
+                rand.nextBytes(data);
+            } else {
+                // Text compresses like real resources do, random bytes wouldn't compress at all.
+                for (int y = 0; y < data.length; y++)
+                    data[y] = (byte)('a' + rand.nextInt(8));
+            }
+            resources.put("assets/synthetic/r" + (x % 100) + "/resource" + x + (binary ? ".bin" : ".txt"), data);
+        }
+    }
+
+    public void writeJar(Path path) throws IOException {
+        try (OutputStream os = Files.newOutputStream(path);
+            ZipOutputStream zos = new ZipOutputStream(os)) {
+            for (Map.Entry<String, byte[]> e : resources.entrySet())
+                write(zos, e.getKey(), e.getValue(), null);
+            for (Map.Entry<String, byte[]> e : classes.entrySet())
+                write(zos, e.getKey() + ".class", e.getValue(), null);
+        }
+    }
+
+    public void writeLibrary(int idx, Path path) throws IOException {
+        try (OutputStream os = Files.newOutputStream(path);
+            ZipOutputStream zos = new ZipOutputStream(os)) {
+            for (Map.Entry<String, byte[]> e : libraries.get(idx).entrySet())
+                write(zos, e.getKey() + ".class", e.getValue(), null);
+        }
+    }
+
+    public void writeMapping(Path path) throws IOException {
+        Files.write(path, getMapping().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes a jar of fake decompiled sources, with the line number data that Fernflower adds to each entry's extra field.
+     * Every line is moved down by one, so every line number in the chain classes changes.
+     */
+    public void writeLineMap(Path path) throws IOException {
+        int lines = 1 + config.methods;
+        try (OutputStream os = Files.newOutputStream(path);
+            ZipOutputStream zos = new ZipOutputStream(os)) {
+            for (String cls : classes.keySet()) {
+                ByteBuffer extra = ByteBuffer.allocate(4 + 1 + lines * 4).order(ByteOrder.LITTLE_ENDIAN);
+                extra.putShort((short)0x4646);
+                extra.putShort((short)(1 + lines * 4));
+                extra.put((byte)1);
+                for (int x = 1; x <= lines; x++) {
+                    extra.putShort((short)x);
+                    extra.putShort((short)(x + 1));
+                }
+                write(zos, cls + ".java", new byte[0], extra.array());
+            }
+        }
+    }
+
+    private static void write(ZipOutputStream zos, String name, byte[] data, byte[] extra) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(0x386D4380);
+        if (extra != null)
+            entry.setExtra(extra);
+        zos.putNextEntry(entry);
+        zos.write(data);
+        zos.closeEntry();
+    }
+
+    public static class Builder {
+        private int classes = 1000;
+        private int depth = 1;
+        private int fields = 4;
+        private int methods = 8;
+        private int interfaces = 0;
+        private boolean innerClasses = false;
+        private boolean lambdas = false;
+        private int records = 0;
+        private int enums = 0;
+        private int libraries = 0;
+        private int libraryClasses = 100;
+        private int resources = 0;
+        private int resourceSize = 0x10000;
+        private double binaryResources = 0;
+        private long seed = 0;
+
+        private Builder() {}
+
+        /** The number of classes in inheritance chains, not counting inner classes. */
+        public Builder classes(int value) {
+            this.classes = value;
+            return this;
+        }
+
+        /** The length of each inheritance chain. */
+        public Builder depth(int value) {
+            this.depth = Math.max(1, value);
+            return this;
+        }
+
+        /** The fields declared in each chain class, also used as the number of record components and enum constants. */
+        public Builder fields(int value) {
+            this.fields = value;
+            return this;
+        }
+
+        /** The methods declared in each chain class. */
+        public Builder methods(int value) {
+            this.methods = value;
+            return this;
+        }
+
+        /** The number of interfaces shared between the chain roots. */
+        public Builder interfaces(int value) {
+            this.interfaces = value;
+            return this;
+        }
+
+        /** Gives every chain class an inner class that calls back into it. */
+        public Builder innerClasses(boolean value) {
+            this.innerClasses = value;
+            return this;
+        }
+
+        /** Gives every chain class a method that returns a lambda. */
+        public Builder lambdas(boolean value) {
+            this.lambdas = value;
+            return this;
+        }
+
+        public Builder records(int value) {
+            this.records = value;
+            return this;
+        }
+
+        public Builder enums(int value) {
+            this.enums = value;
+            return this;
+        }
+
+        /** The number of library jars, the chain roots extend their classes instead of Object. */
+        public Builder libraries(int value) {
+            this.libraries = value;
+            return this;
+        }
+
+        /** The number of classes in each library jar. */
+        public Builder libraryClasses(int value) {
+            this.libraryClasses = Math.max(1, value);
+            return this;
+        }
+
+        /** The number of files that aren't classes. */
+        public Builder resources(int value) {
+            this.resources = value;
+            return this;
+        }
+
+        /** The largest size of a resource, each one is a random size up to this. */
+        public Builder resourceSize(int value) {
+            this.resourceSize = value;
+            return this;
+        }
+
+        /** The share of resources that are random bytes, which don't compress, instead of text. */
+        public Builder binaryResources(double value) {
+            this.binaryResources = value;
+            return this;
+        }
+
+        /** Seed for the resources, the same settings always give the same jar. */
+        public Builder seed(long value) {
+            this.seed = value;
+            return this;
+        }
+
+        public SyntheticJar build() {
+            return new SyntheticJar(this);
+        }
+    }
+}
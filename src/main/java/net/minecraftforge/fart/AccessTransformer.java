@@ -0,0 +1,256 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.fart;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import net.minecraftforge.fart.internal.Log;
+
+/**
+ * Applies an access transformer file while the classes are being renamed, instead of in a second pass over the output.
+ *
+ * <p>Lines are in the usual format of {@code <access>[-f|+f] <class> [<field>|<method><descriptor>|*|*()]}, with
+ * {@code #} starting a comment. The {@code *()} wildcard does not include {@code <init>} or {@code <clinit>}. Access is only ever widened. Whether the names are from before or after renaming
+ * depends on where this is in the transformer order, it simply matches the names of the classes it is given.</p>
+ */
+class AccessTransformer extends OptionalChangeTransformer {
+    enum Config {
+        // Names are from the input, so this runs before the classes are renamed.
+        ORIGINAL,
+        // Names are from the output, so this runs after the classes are renamed.
+        MAPPED;
+    }
+
+    private final Map<String, Target> targets;
+    // Targeted classes and the classes they are nested in, which have a copy of their access in the InnerClasses attribute.
+    private final Set<String> classes = new HashSet<>();
+    private final File data;
+
+    AccessTransformer(File data) {
+        this(parse(data), data);
+    }
+
+    private AccessTransformer(Map<String, Target> targets, File data) {
+        super(parent -> new Fixer(targets, parent));
+        this.targets = targets;
+        this.data = data.getAbsoluteFile();
+        for (String cls : targets.keySet()) {
+            this.classes.add(cls);
+            for (int idx = cls.lastIndexOf('$'); idx != -1; idx = cls.lastIndexOf('$', idx - 1))
+                this.classes.add(cls.substring(0, idx));
+        }
+    }
+
+    @Override
+    public ClassEntry process(ClassEntry entry) {
+        // Most classes aren't mentioned, so don't bother parsing them.
+        if (!classes.contains(entry.getClassName()))
+            return entry;
+        return super.process(entry);
+    }
+
+    @Override
+    public String toString() {
+        return "AccessTransformer[" + data + ' ' + data.length() + ' ' + data.lastModified() + ']';
+    }
+
+    private static Map<String, Target> parse(File data) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(data.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        Map<String, Target> ret = new HashMap<>();
+        for (int x = 0; x < lines.size(); x++) {
+            String line = lines.get(x);
+            int idx = line.indexOf('#');
+            if (idx != -1)
+                line = line.substring(0, idx);
+            line = line.trim();
+            if (line.isEmpty())
+                continue;
+
+            String[] pts = line.split("\\s+");
+            if (pts.length < 2 || pts.length > 3)
+                throw new IllegalArgumentException("Invalid access transformer line " + (x + 1) + " in " + data + ": " + lines.get(x));
+            Modifier mod = Modifier.parse(pts[0]);
+            if (mod == null)
+                throw new IllegalArgumentException("Invalid access modifier on line " + (x + 1) + " in " + data + ": " + pts[0]);
+
+            Target target = ret.computeIfAbsent(pts[1].replace('.', '/'), k -> new Target());
+            if (pts.length == 2)
+                target.cls = Modifier.merge(target.cls, mod);
+            else if (pts[2].equals("*"))
+                target.allFields = Modifier.merge(target.allFields, mod);
+            else if (pts[2].equals("*()"))
+                target.allMethods = Modifier.merge(target.allMethods, mod);
+            else if (pts[2].indexOf('(') != -1)
+                target.methods.merge(pts[2], mod, Modifier::merge);
+            else
+                target.fields.merge(pts[2], mod, Modifier::merge);
+        }
+        return ret;
+    }
+
+    private static class Target {
+        private Modifier cls;
+        private Modifier allFields;
+        private Modifier allMethods;
+        private final Map<String, Modifier> fields = new HashMap<>();
+        private final Map<String, Modifier> methods = new HashMap<>();
+
+        private Modifier field(String name) {
+            return Modifier.merge(allFields, fields.get(name));
+        }
+
+        private Modifier method(String name, String desc) {
+            // Wildcards are for methods, constructors and static initializers have to be listed on their own.
+            Modifier all = name.equals("<init>") || name.equals("<clinit>") ? null : allMethods;
+            return Modifier.merge(all, methods.get(name + desc));
+        }
+    }
+
+    private static class Modifier {
+        // In order of how visible they are, so widening is just taking the higher one.
+        private static final String[] NAMES = { "private", "default", "protected", "public" };
+        private static final int[] FLAGS = { Opcodes.ACC_PRIVATE, 0, Opcodes.ACC_PROTECTED, Opcodes.ACC_PUBLIC };
+        private static final int MASK = Opcodes.ACC_PRIVATE | Opcodes.ACC_PROTECTED | Opcodes.ACC_PUBLIC;
+
+        private final int level;
+        // -1 to remove final, 1 to add it, 0 to leave it alone.
+        private final int fin;
+
+        private Modifier(int level, int fin) {
+            this.level = level;
+            this.fin = fin;
+        }
+
+        private static Modifier parse(String value) {
+            int fin = 0;
+            if (value.endsWith("-f") || value.endsWith("+f")) {
+                fin = value.charAt(value.length() - 2) == '-' ? -1 : 1;
+                value = value.substring(0, value.length() - 2);
+            }
+            for (int x = 0; x < NAMES.length; x++) {
+                if (NAMES[x].equals(value.toLowerCase(Locale.ROOT)))
+                    return new Modifier(x, fin);
+            }
+            return null;
+        }
+
+        // When multiple lines target the same thing, the most visible access wins, and removing final wins over adding it.
+        private static Modifier merge(Modifier a, Modifier b) {
+            if (a == null || b == null)
+                return a == null ? b : a;
+            return new Modifier(Math.max(a.level, b.level), Math.min(a.fin, b.fin));
+        }
+
+        private int apply(int access) {
+            int current = 1; // default
+            for (int x = 0; x < FLAGS.length; x++) {
+                if (FLAGS[x] != 0 && (access & FLAGS[x]) != 0)
+                    current = x;
+            }
+            int ret = (access & ~MASK) | FLAGS[Math.max(current, level)];
+            if (fin < 0)
+                ret &= ~Opcodes.ACC_FINAL;
+            else if (fin > 0)
+                ret |= Opcodes.ACC_FINAL;
+            return ret;
+        }
+    }
+
+    private static class Fixer extends ClassFixer {
+        private final Map<String, Target> targets;
+        private Target target;
+        private String className;
+
+        public Fixer(Map<String, Target> targets, ClassVisitor parent) {
+            super(parent);
+            this.targets = targets;
+        }
+
+        @Override
+        public void visit(final int version, final int access, final String name, final String signature, final String superName, final String[] interfaces) {
+            this.className = name;
+            this.target = targets.get(name);
+            super.visit(version, apply(target == null ? null : target.cls, access, name), name, signature, superName, interfaces);
+        }
+
+        @Override
+        public void visitInnerClass(final String name, final String outerName, final String innerName, final int access) {
+            // The InnerClasses attribute has its own copy of the access, which is what javac checks.
+            Target inner = targets.get(name);
+            super.visitInnerClass(name, outerName, innerName, apply(inner == null ? null : inner.cls, access, "InnerClasses " + name));
+        }
+
+        @Override
+        public FieldVisitor visitField(final int access, final String name, final String descriptor, final String signature, final Object value) {
+            return super.visitField(apply(target == null ? null : target.field(name), access, className + ' ' + name), name, descriptor, signature, value);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(final int access, final String name, final String descriptor, final String signature, final String[] exceptions) {
+            MethodVisitor parent = super.visitMethod(apply(target == null ? null : target.method(name, descriptor), access, className + ' ' + name + descriptor), name, descriptor, signature, exceptions);
+            if (target == null)
+                return parent;
+
+            return new MethodVisitor(Main.MAX_ASM_VERSION, parent) {
+                @Override
+                public void visitMethodInsn(final int opcode, final String owner, final String name, final String descriptor, final boolean isInterface) {
+                    // Private methods are called with invokespecial, which isn't allowed once they aren't private.
+                    Modifier mod = target.method(name, descriptor);
+                    if (opcode == Opcodes.INVOKESPECIAL && owner.equals(className) && !name.equals("<init>") && mod != null && mod.level > 0) {
+                        madeChange = true;
+                        super.visitMethodInsn(isInterface ? Opcodes.INVOKEINTERFACE : Opcodes.INVOKEVIRTUAL, owner, name, descriptor, isInterface);
+                    } else
+                        super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+                }
+            };
+        }
+
+        private int apply(Modifier mod, int access, String what) {
+            if (mod == null)
+                return access;
+            int ret = mod.apply(access);
+            if (ret != access) {
+                madeChange = true;
+                Log.debug(() -> "  AT: " + what + ' ' + Integer.toHexString(access) + " -> " + Integer.toHexString(ret));
+            }
+            return ret;
+        }
+    }
+}
@@ -36,11 +36,14 @@ import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import net.minecraftforge.fart.api.Transformer;
+import net.minecraftforge.fart.internal.Log;
 
 class FFLineFixer implements Transformer {
     private Map<String, NavigableMap<Integer, Integer>> classes = new HashMap<>();
+    private final File data;
 
     FFLineFixer(File data) {
+        this.data = data.getAbsoluteFile();
         try (FileInputStream fis = new FileInputStream(data);
             ZipInputStream zip = new ZipInputStream(fis)) {
             ZipEntry entry = null;
@@ -81,7 +84,13 @@ class FFLineFixer implements Transformer {
     }
 
     private static void log(String line) {
-        //System.out.println(line);
+        Log.debug(line);
+    }
+
+    // Part of the fingerprint used by Renamer.Builder#skipIfUpToDate, the line map is only checked by size and time.
+    @Override
+    public String toString() {
+        return "FFLineFixer[" + data + ' ' + data.length() + ' ' + data.lastModified() + ']';
     }
 
     @Override
@@ -38,8 +38,16 @@ class IdentifierFixer extends OptionalChangeTransformer {
         SNOWMEN;
     }
 
+    private final Config config;
+
     IdentifierFixer(Config config) {
         super(parent -> new Fixer(config, parent));
+        this.config = config;
+    }
+
+    @Override
+    public String toString() {
+        return "IdentifierFixer[" + config + ']';
     }
 
     private static class Fixer extends ClassFixer {
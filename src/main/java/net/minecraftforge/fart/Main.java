@@ -19,6 +19,8 @@
 
 package net.minecraftforge.fart;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -38,8 +40,12 @@ import org.objectweb.asm.Opcodes;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
+import joptsimple.ValueConversionException;
 import joptsimple.ValueConverter;
 import net.minecraftforge.fart.api.Renamer;
+import net.minecraftforge.fart.internal.AsyncLog;
+import net.minecraftforge.fart.internal.Log;
+import net.minecraftforge.fart.internal.Version;
 
 public class Main {
     static final int MAX_ASM_VERSION = Opcodes.ASM9;
@@ -48,26 +54,43 @@ public class Main {
         OptionSpec<File> inputO  = parser.accepts("input",  "Input jar file").withRequiredArg().ofType(File.class).required();
         OptionSpec<File> outputO = parser.accepts("output", "Output jar file, if unspecifed, overwrites input").withRequiredArg().ofType(File.class);
         OptionSpec<File> mapO    = parser.acceptsAll(Arrays.asList("map", "names"),    "Mapping file to apply").withRequiredArg().ofType(File.class);
+        OptionSpec<File> prevInputO  = parser.accepts("previous-input", "Input of a previous run, only changed classes are renamed again").withRequiredArg().ofType(File.class);
+        OptionSpec<File> prevOutputO = parser.accepts("previous-output", "Output of a previous run, defaults to the output").availableIf(prevInputO).withRequiredArg().ofType(File.class);
+        OptionSpec<String> includeO = parser.accepts("include", "Only processes entries matching this prefix or glob, such as com/example/. Can be specified multiple times.").withRequiredArg();
+        OptionSpec<String> excludeO = parser.accepts("exclude", "Copies entries matching this prefix or glob without processing them. Can be specified multiple times.").withRequiredArg();
+        OptionSpec<Void> dropExcludedO = parser.accepts("drop-excluded", "Leaves entries that aren't processed out of the output.").availableIf(includeO, excludeO);
+        OptionSpec<Void> nestedO = parser.accepts("nested-jars", "Renames the jars nested in META-INF/jarjar/ as well.");
+        OptionSpec<String> resourcesO = parser.accepts("remap-resources", "Renames classes in text resources matching this prefix or glob. Without a value, scans service files, access transformers, mixin configs and refmaps.").withOptionalArg();
+        OptionSpec<Void> xrefO = parser.accepts("xref", "Writes an index of the references in each renamed class next to the output, as <output>.xref.jsonl");
+        OptionSpec<File> statsO = parser.accepts("stats-report", "Writes which mapping entries were used, and cache statistics, to this file.").withRequiredArg().ofType(File.class);
+        OptionSpec<Void> skipO   = parser.accepts("skip-if-up-to-date", "Does nothing if the inputs and options match the fingerprint stored next to the output by the last run.");
         OptionSpec<File> logO    = parser.accepts("log",    "File to log data to, optional, defaults to System.out").withRequiredArg().ofType(File.class);
+        OptionSpec<Void> quietO   = parser.accepts("quiet", "Only log errors.");
+        OptionSpec<Void> verboseO = parser.accepts("verbose", "Log every entry written, and how long each step took.").availableUnless(quietO);
         OptionSpec<File> libO    = parser.acceptsAll(Arrays.asList("lib", "e"), "Additional library to use for inheritence").withRequiredArg().ofType(File.class);
         OptionSpec<Void> fixAnnO = parser.accepts("ann-fix", "Fixes misaligned parameter annotations caused by Proguard.");
         OptionSpec<Void> fixRecordsO = parser.accepts("record-fix", "Fixes record component data stripped by Proguard.");
         OptionSpec<IdentifierFixer.Config> fixIdsO = parser.accepts("ids-fix", "Fixes local variables that are not valid java identifiers.").withOptionalArg().withValuesConvertedBy(new IDConverter()).defaultsTo(IdentifierFixer.Config.ALL);
         OptionSpec<SourceFixer.Config> fixSrcO = parser.accepts("src-fix", "Fixes the 'SourceFile' attribute of classes.").withOptionalArg().withValuesConvertedBy(new SrcConverter()).defaultsTo(SourceFixer.Config.JAVA);
         OptionSpec<Integer> threadsO = parser.accepts("threads", "Number of threads to use, defaults to processor count.").withRequiredArg().ofType(Integer.class).defaultsTo(Runtime.getRuntime().availableProcessors());
+        OptionSpec<File> atO = parser.accepts("access-transformer", "Applies an access transformer file while renaming.").withRequiredArg().ofType(File.class);
+        OptionSpec<AccessTransformer.Config> atNamesO = parser.accepts("at-names", "Whether the access transformer uses the original or mapped names, defaults to mapped.").availableIf(atO).withRequiredArg().withValuesConvertedBy(new ATConverter()).defaultsTo(AccessTransformer.Config.MAPPED);
         OptionSpec<File> ffLinesO = parser.accepts("ff-line-numbers", "Applies line number corrections from Fernflower.").withRequiredArg().ofType(File.class);
+        OptionSpec<Long> maxMemoryO = parser.accepts("max-memory", "Limits how much entry data is processed at once, such as 512m or 2g. 0 for no limit, defaults to half the max heap.").withRequiredArg().withValuesConvertedBy(new SizeConverter());
+        OptionSpec<Long> spillO = parser.accepts("spill-threshold", "Keeps processed entries at least this large in a temp file instead of memory, such as 4m.").withRequiredArg().withValuesConvertedBy(new SizeConverter());
+        OptionSpec<String> checksumO = parser.accepts("checksum", "Writes a checksum file next to the output, can be specified multiple times. md5|sha1|sha256|sha512").withRequiredArg();
         OptionSet options = parser.parse(expandArgs(args));
 
-        if (options.has(logO)) {
-            PrintStream out = System.out;
-            PrintStream log = new PrintStream(new FileOutputStream(options.valueOf(logO)));
-            hookStdOut(ln -> {
-                out.println(ln);
-                log.println(ln);
-            });
-        } else {
-            hookStdOut(System.out::println);
-        }
+        Log.setLevel(options.has(quietO) ? Log.Level.QUIET : options.has(verboseO) ? Log.Level.VERBOSE : Log.Level.NORMAL);
+        AsyncLog logger;
+        if (options.has(logO))
+            logger = new AsyncLog(System.out, new PrintStream(new BufferedOutputStream(new FileOutputStream(options.valueOf(logO)))));
+        else
+            logger = new AsyncLog(System.out);
+        Log.setOutput(logger);
+        // Closing on shutdown instead of at the end of main, so that the stack trace of anything that kills us gets written as well.
+        Runtime.getRuntime().addShutdownHook(new Thread(logger::close, "FART-Log-Shutdown"));
+        hookStdOut();
 
         log("Forge Auto Renaming Tool v" + getVersion());
         Renamer.Builder builder = Renamer.builder();
@@ -91,11 +114,79 @@ public class Main {
         log("output: " + outputF.getAbsolutePath());
         builder.output(outputF);
 
+        if (options.has(prevInputO)) {
+            File prevOutputF = options.has(prevOutputO) ? options.valueOf(prevOutputO) : outputF;
+            log("previous-input: " + options.valueOf(prevInputO).getAbsolutePath());
+            log("previous-output: " + prevOutputF.getAbsolutePath());
+            builder.incremental(options.valueOf(prevInputO), prevOutputF);
+        }
+
+        for (String include : options.valuesOf(includeO)) {
+            log("include: " + include);
+            builder.include(include);
+        }
+
+        for (String exclude : options.valuesOf(excludeO)) {
+            log("exclude: " + exclude);
+            builder.exclude(exclude);
+        }
+
+        if (options.has(dropExcludedO)) {
+            log("drop-excluded: true");
+            builder.dropExcluded(true);
+        }
+
+        if (options.has(nestedO)) {
+            log("nested-jars: true");
+            builder.nestedJars(true);
+        }
+
+        if (options.has(resourcesO)) {
+            List<String> patterns = options.valuesOf(resourcesO);
+            log("remap-resources: " + (patterns.isEmpty() ? "default" : patterns));
+            builder.remapResources(patterns.toArray(new String[patterns.size()]));
+        }
+
+        if (options.has(xrefO)) {
+            log("xref: true");
+            builder.xref(true);
+        }
+
+        if (options.has(statsO)) {
+            log("stats-report: " + options.valueOf(statsO).getAbsolutePath());
+            builder.statsReport(options.valueOf(statsO));
+        }
+
+        if (options.has(skipO)) {
+            log("skip-if-up-to-date: true");
+            builder.skipIfUpToDate(true);
+        }
+
         log("threads: " + options.valueOf(threadsO));
         builder.threads(options.valueOf(threadsO));
 
+        if (options.has(maxMemoryO)) {
+            log("max-memory: " + options.valueOf(maxMemoryO));
+            builder.maxMemory(options.valueOf(maxMemoryO));
+        }
+
+        if (options.has(spillO)) {
+            log("spill-threshold: " + options.valueOf(spillO));
+            builder.spillThreshold(options.valueOf(spillO));
+        }
+
+        for (String checksum : options.valuesOf(checksumO)) {
+            log("checksum: " + checksum);
+            builder.checksum(checksum);
+        }
+
         // Map is optional so that we can run other fixes without renaming.
         // This does mean that it's not strictly a 'renaming' tool but screw it I like the name.
+        // Transformers run in the order they are added, so an access transformer using the original names goes before the renamer.
+        AccessTransformer.Config atNames = options.valueOf(atNamesO);
+        if (options.has(atO) && atNames == AccessTransformer.Config.ORIGINAL)
+            addAccessTransformer(builder, options.valueOf(atO), atNames);
+
         if (options.has(mapO)) {
             File mapF = options.valueOf(mapO);
             log("Names: " + mapF.getAbsolutePath());
@@ -104,6 +195,11 @@ public class Main {
             log("Names: null");
         }
 
+        if (!options.has(atO))
+            log("Access Transformer: false");
+        else if (atNames == AccessTransformer.Config.MAPPED)
+            addAccessTransformer(builder, options.valueOf(atO), atNames);
+
         if (options.has(fixAnnO)) {
             log("Fix Annotations: true");
             builder.add(new ParameterAnnotationFixer());
@@ -144,8 +240,13 @@ public class Main {
         renamer.run();
     }
 
+    private static void addAccessTransformer(Renamer.Builder builder, File data, AccessTransformer.Config names) {
+        log("Access Transformer: " + data.getAbsolutePath() + " (" + names.name().toLowerCase(Locale.ENGLISH) + " names)");
+        builder.add(new AccessTransformer(data));
+    }
+
     private static void log(String line) {
-        System.out.println(line);
+        Log.info(line);
     }
 
     private static String[] expandArgs(String[] args) throws IOException {
@@ -167,82 +268,58 @@ public class Main {
     }
 
     private static String getVersion() {
-        final String ver = Main.class.getPackage().getImplementationVersion();
-        return ver == null ? "UNKNOWN" : ver;
+        return Version.get();
     }
 
-    static void hookStdOut(final Consumer<String> consumer) {
-        final OutputStream monitorStream = new OutputStream() {
-            private byte[] buf = new byte[128];
-            private int index = 0;
-
-            private void ensure(int len) {
-                if (buf.length <= len) {
-                    byte[] old = buf;
-                    int max = buf.length << 1;
-                    while (max > 0 && max < len) {
-                        max += 1024;
-                    }
-                    if (max < 0)
-                        throw new OutOfMemoryError();
-                    buf = Arrays.copyOf(old, max);
-                }
-            }
+    // Anything that still prints directly, like stack traces, goes to the log as well.
+    static void hookStdOut() {
+        System.setOut(new PrintStream(new LineStream(Log::info)));
+        System.setErr(new PrintStream(new LineStream(Log::error)));
+    }
 
-            private void send() {
-                if (index == 0)
-                    return; // TODO: Detect and support multiple empty lines?
-                String line = new String(buf, 0, index);
-                buf = new byte[128];
-                index = 0;
-                consumer.accept(line);
-            }
+    // Splits what's written into lines. Each thread has its own buffer, so threads printing at
+    // the same time neither wait on each other nor interleave their lines.
+    private static class LineStream extends OutputStream {
+        private final Consumer<String> consumer;
+        private final ThreadLocal<ByteArrayOutputStream> buf = ThreadLocal.withInitial(() -> new ByteArrayOutputStream(128));
 
-            @Override
-            public synchronized void write(int b) {
-                if (b == '\r' || b == '\n') {
-                    send();
-                } else {
-                    ensure(index + 1);
-                    buf[index++] = (byte)b;
-                }
-            }
+        private LineStream(Consumer<String> consumer) {
+            this.consumer = consumer;
+        }
 
-            @Override
-            public synchronized void write(byte b[], int off, int len) {
-                if (off < 0 || len < 0 || off > b.length || (off + len) >= b.length)
-                    throw new IndexOutOfBoundsException();
-
-                while (len > 0) {
-                    int x = 0;
-                    for (; x < len; x++) {
-                        byte i = b[off + x];
-                        if (i == '\r' || i == '\n')
-                            break;
-                    }
-                    ensure(index + x);
-                    System.arraycopy(b, off, buf, index, x);
-                    index += x;
-
-                    if (x != len) {
-                        send();
-                        x++; //Skip this char
-                        len -= x;
-                        off += x;
-                        if (b[off - 1] == '\r' && b[off] == '\n') {
-                            len--;
-                            off++;
-                        }
-                    } else {
-                        off += len;
-                        len = 0;
-                    }
+        private void send(ByteArrayOutputStream buf) {
+            if (buf.size() == 0)
+                return; // TODO: Detect and support multiple empty lines?
+            String line = buf.toString();
+            buf.reset();
+            consumer.accept(line);
+        }
+
+        @Override
+        public void write(int b) {
+            ByteArrayOutputStream buf = this.buf.get();
+            if (b == '\r' || b == '\n')
+                send(buf);
+            else
+                buf.write(b);
+        }
+
+        @Override
+        public void write(byte b[], int off, int len) {
+            if (off < 0 || len < 0 || off + len > b.length)
+                throw new IndexOutOfBoundsException();
+
+            ByteArrayOutputStream buf = this.buf.get();
+            int start = off;
+            for (int x = off; x < off + len; x++) {
+                if (b[x] == '\r' || b[x] == '\n') {
+                    buf.write(b, start, x - start);
+                    send(buf);
+                    start = x + 1;
                 }
             }
-        };
-
-        System.setOut(new PrintStream(monitorStream));
-        System.setErr(new PrintStream(monitorStream));
+            buf.write(b, start, off + len - start);
+        }
     }
 
     private static class IDConverter implements ValueConverter<IdentifierFixer.Config> {
@@ -262,6 +339,53 @@ public class Main {
         }
     }
 
+    private static class ATConverter implements ValueConverter<AccessTransformer.Config> {
+        @Override
+        public AccessTransformer.Config convert(String value) {
+            return AccessTransformer.Config.valueOf(value.toUpperCase(Locale.ENGLISH));
+        }
+
+        @Override
+        public Class<? extends AccessTransformer.Config> valueType() {
+            return AccessTransformer.Config.class;
+        }
+
+        @Override
+        public String valuePattern() {
+            return Arrays.stream(AccessTransformer.Config.values()).map(AccessTransformer.Config::name).collect(Collectors.joining("|"));
+        }
+    }
+
+    private static class SizeConverter implements ValueConverter<Long> {
+        @Override
+        public Long convert(String value) {
+            String num = value.toLowerCase(Locale.ENGLISH);
+            int shift = 0;
+            switch (num.isEmpty() ? ' ' : num.charAt(num.length() - 1)) {
+                case 'k': shift = 10; break;
+                case 'm': shift = 20; break;
+                case 'g': shift = 30; break;
+            }
+            if (shift != 0)
+                num = num.substring(0, num.length() - 1);
+            try {
+                return Long.parseLong(num) << shift;
+            } catch (NumberFormatException e) {
+                throw new ValueConversionException("Invalid size: " + value, e);
+            }
+        }
+
+        @Override
+        public Class<? extends Long> valueType() {
+            return Long.class;
+        }
+
+        @Override
+        public String valuePattern() {
+            return "bytes[k|m|g]";
+        }
+    }
+
     private static class SrcConverter implements ValueConverter<SourceFixer.Config> {
         @Override
         public SourceFixer.Config convert(String value) {
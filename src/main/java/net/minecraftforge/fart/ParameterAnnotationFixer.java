@@ -33,6 +33,7 @@ import org.objectweb.asm.tree.InnerClassNode;
 import org.objectweb.asm.tree.MethodNode;
 
 import net.minecraftforge.fart.api.Transformer;
+import net.minecraftforge.fart.internal.Log;
 
 public class ParameterAnnotationFixer implements Transformer {
     @Override
@@ -45,6 +46,11 @@ public class ParameterAnnotationFixer implements Transformer {
         return ClassEntry.create(entry.getName(), entry.getTime(), writer.toByteArray());
     }
 
+    @Override
+    public String toString() {
+        return "ParameterAnnotationFixer";
+    }
+
     private static class Visitor extends ClassVisitor {
         private final ClassNode node;
 
@@ -54,11 +60,11 @@ public class ParameterAnnotationFixer implements Transformer {
         }
 
         private void debug(String message) {
-            //System.out.println(message);
+            Log.debug(message);
         }
 
         private void log(String message) {
-            System.out.println(message);
+            Log.info(message);
         }
 
         @Override
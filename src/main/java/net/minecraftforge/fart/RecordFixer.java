@@ -32,6 +32,11 @@ class RecordFixer extends OptionalChangeTransformer {
         super(Fixer::new);
     }
 
+    @Override
+    public String toString() {
+        return "RecordFixer";
+    }
+
     private static class Fixer extends ClassFixer {
         private Map<String, Entry> components;
         private boolean isRecord;
@@ -28,8 +28,16 @@ public class SourceFixer extends OptionalChangeTransformer {
         // If people care they can PR scala/kotlin/groovy, or map based support
     }
 
+    private final Config config;
+
     SourceFixer(Config config) {
         super(parent -> new Fixer(config, parent));
+        this.config = config;
+    }
+
+    @Override
+    public String toString() {
+        return "SourceFixer[" + config + ']';
     }
 
     private static class Fixer extends ClassFixer {
@@ -20,6 +20,8 @@
 package net.minecraftforge.fart.api;
 
 import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
 
 import net.minecraftforge.fart.internal.RenamerBuilder;
 
@@ -33,10 +35,138 @@ public interface Renamer {
     public interface Builder {
         Builder input(File value);
         Builder output(File value);
+        /**
+         * Only processes the classes that changed since a previous run, and the classes that inherit from them.
+         * Everything else is copied from the previous output. The mapping, libraries and other settings are stored next
+         * to the output, as {@code <output>.settings}, and if they don't match the previous output's, or either file
+         * doesn't exist, everything is renamed.
+         * @param previousInput The input of the previous run.
+         * @param previousOutput The output of the previous run, usually the same file as the output.
+         */
+        Builder incremental(File previousInput, File previousOutput);
+        /**
+         * Writes a fingerprint of the input, mappings, libraries, transformers and tool version next to the output,
+         * and skips the run entirely if they all match the fingerprint from the last run and the output is untouched.
+         * Transformers are compared by their {@code toString}, so custom transformers that don't override it always rerun.
+         * @param value True to check and write the fingerprint. Defaults to false.
+         */
+        Builder skipIfUpToDate(boolean value);
         Builder lib(File value);
         Builder map(File value);
         Builder add(Transformer value);
+        /**
+         * Only processes entries whose path matches one of the included patterns. Can be called multiple times,
+         * if it never is everything is included. Entries that aren't processed are copied to the output unchanged,
+         * excluded classes are still used for inheritance. The manifest and the files the renamer writes itself, such as
+         * {@code fernflower_abstract_parameter_names.txt}, are always processed.
+         * @param pattern A prefix such as {@code com/example/}, or a glob such as {@code com/example/**}{@code /*.class}
+         *                where {@code *} doesn't match across directories and {@code **} does.
+         */
+        Builder include(String pattern);
+        /**
+         * Skips entries whose path matches the pattern, even if they are included.
+         * @see #include(String)
+         */
+        Builder exclude(String pattern);
+        /**
+         * Leaves entries that aren't processed out of the output, instead of copying them unchanged.
+         * @param value True to drop them. Defaults to false.
+         */
+        Builder dropExcluded(boolean value);
+        /**
+         * Renames the jars nested under {@code META-INF/jarjar/} in the same run, instead of copying them as is.
+         * Each nested jar is processed in memory at the same time as its parent, using the same mapping and transformers.
+         * Its classes can see the parent's classes and the libraries, but not the other way around.
+         * @param value True to rename nested jars. Defaults to false.
+         */
+        Builder nestedJars(boolean value);
+        /**
+         * Replaces the names of renamed classes in text resources, such as service files, mixin configs and access
+         * transformers, and in the manifest's {@code Main-Class}. Names are only replaced where they stand on their own,
+         * in internal, dotted or descriptor form. Service files are renamed to match their interface.
+         * @param patterns Prefixes or globs of the resources to scan, see {@link #include(String)}. If none are given,
+         *                 service files, {@code META-INF/accesstransformer.cfg}, mixin configs and refmaps are scanned.
+         */
+        Builder remapResources(String... patterns);
+        /**
+         * Writes an index of what each renamed class references next to the output, as {@code <output>.xref.jsonl}.
+         * It's collected while renaming so it doesn't cost another pass over the classes. Each line is a JSON object
+         * describing one class using the renamed names: its super class, interfaces, fields and methods,
+         * and the types, fields and methods it references. Not written for in memory jobs or nested jars.
+         * @param value True to write the index. Defaults to false.
+         */
+        Builder xref(boolean value);
+        /**
+         * Writes a report when the session is closed, with which mapping entries were used and which weren't,
+         * how many method names were propagated between classes, and how well the class caches worked.
+         * Useful for pruning mappings and tuning {@link #cacheSize(int)}.
+         * @param value The file to write the report to.
+         */
+        Builder statsReport(File value);
         Builder threads(int value);
+        /**
+         * Writes a checksum file next to the output, computed while the output is written.
+         * @param value The checksum type and file extension: md5, sha1, sha256 or sha512
+         */
+        Builder checksum(String value);
+        /**
+         * Limits how many parsed library classes a session keeps, for sessions that live for many jobs.
+         * The least recently used classes are evicted first, and are only re-read if the GC collected them.
+         * Classes from the jar being renamed are always kept until that job is done.
+         * @param value Roughly how many classes to keep, or 0 for no limit. Defaults to 0.
+         */
+        Builder cacheSize(int value);
+        /**
+         * Processes entries on the given executor instead of a pool owned by the renamer, for tools that manage their own threads.
+         * The executor is never shut down by the renamer. {@link #threads(int)} should still be set to roughly its parallelism.
+         */
+        Builder executor(Executor value);
+        /**
+         * Runs blocking work, such as reading libraries, on the given executor. The executor is never shut down by the renamer.
+         * Defaults to virtual threads on Java 21 and newer, and a pool the size of {@link #threads(int)} before that.
+         */
+        Builder ioExecutor(Executor value);
+        /**
+         * Limits roughly how many bytes of entries are processed at once. When the limit is hit, new work waits
+         * for running work to finish instead of growing the heap. Defaults to half of the JVM's maximum heap.
+         * @param value The limit in bytes, or 0 for no limit.
+         */
+        Builder maxMemory(long value);
+        /**
+         * Moves processed entries at least this large out of the heap and into a temp file until the output is written.
+         * Useful for jars with large resources or nested jars, which would otherwise sit in the old generation for the whole run.
+         * @param value The size in bytes, or 0 to keep everything in memory. Defaults to 0.
+         */
+        Builder spillThreshold(long value);
         Renamer build();
+        /**
+         * Creates a session that keeps the thread pool, libraries and mappings loaded, so they can be reused for many jars.
+         * The input and output set on this builder are ignored, each call to the session supplies its own.
+         */
+        Session session();
+    }
+
+    /**
+     * A long lived renamer, for tools that rename many jars with the same configuration.
+     * Jobs can be run from multiple threads at once, they share the session's worker threads.
+     * Closing the session waits for running jobs to finish, new jobs can't be started once it's closed.
+     */
+    public interface Session extends AutoCloseable {
+        void rename(File input, File output);
+        void rename(Path input, Path output);
+        /**
+         * Renames a jar held in memory, checksum files are not written for in memory jobs.
+         * @return The renamed jar
+         */
+        byte[] rename(byte[] input);
+        /**
+         * Renames the input, copying the classes that can't have changed from the output of a previous run.
+         * @see Builder#incremental(File, File)
+         */
+        void update(File previousInput, File previousOutput, File input, File output);
+        void update(Path previousInput, Path previousOutput, Path input, Path output);
+
+        @Override
+        void close();
     }
 }
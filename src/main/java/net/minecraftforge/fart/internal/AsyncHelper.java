@@ -20,26 +20,75 @@
 package net.minecraftforge.fart.internal;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
 
+import javax.annotation.Nullable;
+
 class AsyncHelper {
-    private final ExecutorService exec;
+    // Anything smaller than this is grouped with other small inputs, so we don't pay a task per tiny resource.
+    private static final long SMALL = 0x2000;
+    private static final long BATCH_WEIGHT = 0x10000;
+    private static final int BATCH_COUNT = 64;
+
+    private final Executor cpu;
+    private final Executor io;
+    private final int threads;
+    // Only the executors we created, anything we were given belongs to someone else.
+    private final List<ExecutorService> owned = new ArrayList<>();
+    @Nullable
+    private final MemoryBudget budget;
+    // Set while a thread is running a job from submitJob, jobs it starts itself run inline instead of waiting on the pool.
+    private final ThreadLocal<Boolean> inJob = new ThreadLocal<>();
+
     AsyncHelper(int threads) {
+        this(threads, null, null, null);
+    }
+
+    /**
+     * @param threads Number of workers to create if no CPU executor is given, also used to tell when workers are running out of work.
+     * @param cpu Executor for transforming entries, or null to create a pool.
+     * @param io Executor for blocking work such as reading libraries, or null to create one. Uses virtual threads when the runtime supports them.
+     * @param budget Limits how many bytes of weighted work can be running at once, or null for no limit.
+     */
+    AsyncHelper(int threads, @Nullable Executor cpu, @Nullable Executor io, @Nullable MemoryBudget budget) {
+        this.threads = threads;
+        this.budget = budget;
         if (threads <= 0)
             throw new IllegalArgumentException("Really.. no threads to process things? What do you want me to use a genie?");
-        else if (threads == 1)
-            exec = Executors.newSingleThreadExecutor();
-        else
-            exec = Executors.newWorkStealingPool(threads);
+
+        if (cpu == null) {
+            ExecutorService exec = threads == 1 ? Executors.newSingleThreadExecutor() : Executors.newWorkStealingPool(threads);
+            this.owned.add(exec);
+            this.cpu = exec;
+        } else
+            this.cpu = cpu;
+
+        if (io != null)
+            this.io = io;
+        else if (threads == 1 && cpu == null)
+            this.io = this.cpu; // Asked for a single thread, so keep everything on it.
+        else {
+            ExecutorService exec = IOExecutor.create(threads);
+            this.owned.add(exec);
+            this.io = exec;
+        }
     }
 
     public <I,O> void consumeAll(Collection<? extends I> inputs, Consumer<I> consumer) {
@@ -56,21 +105,220 @@ class AsyncHelper {
     }
 
     public <O> List<O> invokeAll(Collection<? extends Callable<O>> tasks) {
+        List<FutureTask<O>> processed = tasks.stream().map(FutureTask::new).collect(Collectors.toList());
         try {
+            processed.forEach(cpu::execute);
             List<O> ret = new ArrayList<>();
-            List<Future<O>> processed = exec.invokeAll(tasks);
             for (Future<O> future : processed) {
                 O done = future.get();
                 if (done != null)
                     ret.add(done);
             }
             return ret;
+        } catch (InterruptedException | ExecutionException e) {
+            processed.forEach(f -> f.cancel(true));
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Like {@link #invokeAll(Collection, Function)} but schedules the heaviest inputs first, so one large input at the end
+     * doesn't leave the other workers idle while it finishes. Small inputs are batched together into a single task.
+     * Results are collected as they complete, and returned in the same order as the inputs.
+     *
+     * @param weight Estimated cost of each input, typically its size in bytes. Also counted against the memory budget.
+     */
+    public <I,O> List<O> invokeAll(List<? extends I> inputs, ToLongFunction<? super I> weight, Function<I, O> converter) {
+        int count = inputs.size();
+        long[] weights = new long[count];
+        Integer[] order = new Integer[count];
+        for (int x = 0; x < count; x++) {
+            weights[x] = weight.applyAsLong(inputs.get(x));
+            order[x] = x;
+        }
+        Arrays.sort(order, Comparator.comparingLong((Integer x) -> weights[x]).reversed());
+
+        List<int[]> batches = new ArrayList<>();
+        int start = 0;
+        while (start < count) {
+            int end = start + 1;
+            if (weights[order[start]] < SMALL) {
+                long total = weights[order[start]];
+                while (end < count && end - start < BATCH_COUNT && total < BATCH_WEIGHT)
+                    total += weights[order[end++]];
+            }
+            int[] batch = new int[end - start];
+            for (int x = 0; x < batch.length; x++)
+                batch[x] = order[start + x];
+            batches.add(batch);
+            start = end;
+        }
+
+        @SuppressWarnings("unchecked")
+        O[] results = (O[])new Object[count];
+        BlockingQueue<Batch> completed = new LinkedBlockingQueue<>();
+        List<Batch> submitted = new ArrayList<>(batches.size());
+        long begin = System.nanoTime();
+        long idle = -1;
+        long throttled = budget == null ? 0 : budget.getThrottled();
+        boolean success = false;
+        try {
+            int remaining = batches.size();
+            for (int[] batch : batches) {
+                long total = 0;
+                for (int idx : batch)
+                    total += weights[idx];
+                int cost = budget == null ? 0 : budget.acquire(total);
+
+                Batch task = new Batch(() -> {
+                    for (int idx : batch)
+                        results[idx] = converter.apply(inputs.get(idx));
+                }, cost, completed);
+                submitted.add(task);
+                cpu.execute(task);
+
+                // Waiting for memory gives earlier tasks time to fail, so check before we hand out any more work.
+                for (Batch done = completed.poll(); done != null; done = completed.poll()) {
+                    done.get();
+                    remaining--;
+                }
+            }
+
+            for (; remaining > 0; remaining--) {
+                completed.take().get();
+                // Once there are fewer tasks left than workers, some of them are sitting idle, that's the tail we're trying to shrink.
+                if (idle == -1 && remaining - 1 < threads)
+                    idle = System.nanoTime();
+            }
+            success = true;
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (!success)
+                abort(submitted);
+        }
+        long finish = System.nanoTime();
+        throttled = budget == null ? 0 : budget.getThrottled() - throttled;
+        Log.debug("  " + count + " items in " + batches.size() + " tasks took " + ((finish - begin) / 1000000) + "ms, " +
+            ((finish - (idle == -1 ? finish : idle)) / 1000000) + "ms of that with idle workers" +
+            (throttled == 0 ? "" : ", waited for memory " + throttled + " times"));
+
+        // The results array is filled by the workers, but completing the futures above makes their writes visible to us.
+        List<O> ret = new ArrayList<>(count);
+        for (O result : results) {
+            if (result != null)
+                ret.add(result);
+        }
+        return ret;
+    }
+
+    /*
+     * Cancels everything that hasn't started, and waits for whatever is already running. The caller may close the
+     * input once we throw, so nothing can still be reading from it.
+     */
+    private static void abort(List<Batch> batches) {
+        batches.forEach(b -> b.cancel(false));
+        for (Batch batch : batches)
+            batch.awaitStopped();
+    }
+
+    /*
+     * A task holding part of the memory budget. The permits are handed back when the task is done however that happens,
+     * including being cancelled before it ever ran, which a finally block in the task itself would miss.
+     */
+    private class Batch extends FutureTask<Void> {
+        private final int cost;
+        private final BlockingQueue<Batch> completed;
+        private final CountDownLatch stopped = new CountDownLatch(1);
+        private volatile boolean started = false;
+
+        private Batch(Runnable task, int cost, BlockingQueue<Batch> completed) {
+            super(task, null);
+            this.cost = cost;
+            this.completed = completed;
+        }
+
+        @Override
+        public void run() {
+            started = true;
+            try {
+                super.run();
+            } finally {
+                stopped.countDown();
+            }
+        }
+
+        // Called once, when the task completes, fails or is cancelled.
+        @Override
+        protected void done() {
+            if (budget != null)
+                budget.release(cost);
+            completed.add(this);
+        }
+
+        private void awaitStopped() {
+            if (!started)
+                return; // Cancelled before it ran, so it never will.
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    stopped.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs blocking work, such as reading a library, on the I/O executor.
+     */
+    public <O> Future<O> submitIO(Callable<O> task) {
+        FutureTask<O> ret = new FutureTask<>(task);
+        io.execute(ret);
+        return ret;
+    }
+
+    /**
+     * Runs work that waits on the workers itself, such as processing a nested jar, on the I/O executor.
+     *
+     * <p>It runs on the caller instead if both executors are the same thread, or if the caller is a job itself. The I/O
+     * executor can be a fixed size pool, and a job waiting for jobs queued behind it could otherwise fill the pool with
+     * threads that are all waiting on each other.</p>
+     */
+    public <O> Future<O> submitJob(Callable<O> task) {
+        if (io == cpu || inJob.get() != null) {
+            FutureTask<O> ret = new FutureTask<>(task);
+            ret.run();
+            return ret;
+        }
+
+        return submitIO(() -> {
+            inJob.set(Boolean.TRUE);
+            try {
+                return task.call();
+            } finally {
+                inJob.remove();
+            }
+        });
+    }
+
+    public void executeIO(Runnable task) {
+        io.execute(task);
+    }
+
+    public <O> O join(Future<O> future) {
+        try {
+            return future.get();
         } catch (InterruptedException | ExecutionException e) {
             throw new RuntimeException(e);
         }
     }
 
     public void shutdown() {
-        exec.shutdown();
+        owned.forEach(ExecutorService::shutdown);
     }
 }
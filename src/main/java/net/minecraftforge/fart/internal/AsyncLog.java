@@ -0,0 +1,127 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package net.minecraftforge.fart.internal;
+
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Queues log lines and writes them from a background thread, so workers never wait on the console or log file.
+ * Adding a line is a single lock free queue insert, the writer is only woken up if it's gone to sleep.
+ *
+ * <p>Once closed, everything queued is written and any later lines are written directly, so
+ * stack traces printed on the way out still end up in the log.</p>
+ */
+public class AsyncLog implements Consumer<String>, Closeable {
+    private final PrintStream[] outputs;
+    private final Queue<String> queue = new ConcurrentLinkedQueue<>();
+    private final Thread writer;
+    private volatile boolean sleeping = false;
+    private volatile boolean closed = false;
+
+    public AsyncLog(PrintStream... outputs) {
+        this.outputs = outputs;
+        this.writer = new Thread(this::run, "FART-Log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public void accept(String line) {
+        if (closed) {
+            synchronized (this) {
+                write(line);
+                flush();
+            }
+            return;
+        }
+
+        queue.offer(line);
+        // Close may have done its last drain between our check and the offer, so nobody else would write this line.
+        if (closed)
+            drain();
+        else if (sleeping)
+            LockSupport.unpark(writer);
+    }
+
+    private void run() {
+        while (true) {
+            String line = queue.poll();
+            if (line != null) {
+                synchronized (this) {
+                    do {
+                        write(line);
+                    } while ((line = queue.poll()) != null);
+                    flush();
+                }
+                continue;
+            }
+
+            if (closed)
+                return;
+
+            // Check the queue again after saying we're asleep, so a line added in between can't be missed.
+            sleeping = true;
+            if (queue.isEmpty() && !closed)
+                LockSupport.park(this);
+            sleeping = false;
+        }
+    }
+
+    private void write(String line) {
+        for (PrintStream out : outputs)
+            out.println(line);
+    }
+
+    private void flush() {
+        for (PrintStream out : outputs)
+            out.flush();
+    }
+
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Anything added while we were shutting down.
+        drain();
+    }
+
+    private void drain() {
+        synchronized (this) {
+            String line;
+            while ((line = queue.poll()) != null)
+                write(line);
+            flush();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.fart.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Buffers writes to a channel in large chunks, and hashes everything that
+ * goes through it, so we can write checksum files without reading the output back in.
+ */
+class ChecksumOutputStream extends OutputStream {
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+    private final Map<HashFunction, MessageDigest> digests = new EnumMap<>(HashFunction.class);
+    private Map<HashFunction, String> checksums;
+
+    ChecksumOutputStream(WritableByteChannel channel, Collection<HashFunction> functions) {
+        this.channel = channel;
+        for (HashFunction func : functions)
+            digests.put(func, func.get());
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!buf.hasRemaining())
+            flushBuffer();
+        buf.put((byte)b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!buf.hasRemaining())
+                flushBuffer();
+            int cnt = Math.min(len, buf.remaining());
+            buf.put(b, off, cnt);
+            off += cnt;
+            len -= cnt;
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (buf.position() == 0)
+            return;
+        for (MessageDigest digest : digests.values())
+            digest.update(buf.array(), 0, buf.position());
+        buf.flip();
+        while (buf.hasRemaining())
+            channel.write(buf);
+        buf.clear();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (checksums != null)
+            return;
+        try {
+            flushBuffer();
+            if (channel instanceof FileChannel)
+                ((FileChannel)channel).force(false);
+        } finally {
+            checksums = new EnumMap<>(HashFunction.class);
+            digests.forEach((func, digest) -> checksums.put(func, func.digest(digest)));
+            channel.close();
+        }
+    }
+
+    /**
+     * @return The hex encoded checksums of everything written, only available after the stream is closed.
+     */
+    public Map<HashFunction, String> getChecksums() {
+        if (checksums == null)
+            throw new IllegalStateException("Checksums are not available until the stream is closed");
+        return checksums;
+    }
+}
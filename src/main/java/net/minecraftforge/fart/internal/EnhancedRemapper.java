@@ -20,12 +20,17 @@
 package net.minecraftforge.fart.internal;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.annotation.Nullable;
 
@@ -42,12 +47,44 @@ import static org.objectweb.asm.Opcodes.*;
 
 class EnhancedRemapper extends Remapper {
     private final Inheritance inh;
-    private final IMappingFile map;
+    private final CompletableFuture<IMappingFile> map;
+    private final CompletableFuture<Boolean> classOnly;
     private final Map<String, Optional<MClass>> resolved = new ConcurrentHashMap<>();
+    // Counters for the stats report, striped so the workers don't contend on them.
+    private final LongAdder resolvedHits = new LongAdder();
+    private final LongAdder resolvedMisses = new LongAdder();
+    private final LongAdder propagated = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    /*
+     * The mapping entries that were used, in the same format as StatsReport lists the unused ones. Only tracked if a
+     * report was asked for, and each entry is only added the first time, so the workers mostly just read a flag.
+     */
+    @Nullable
+    private volatile Set<String> used;
 
     public EnhancedRemapper(Inheritance inh, IMappingFile map) {
+        this(inh, CompletableFuture.completedFuture(map));
+    }
+
+    /*
+     * The mapping may still be loading in the background, we only wait for it
+     * the first time we actually need to look something up.
+     */
+    public EnhancedRemapper(Inheritance inh, CompletableFuture<IMappingFile> map) {
         this.inh = inh;
         this.map = map;
+        this.classOnly = map.thenApply(EnhancedRemapper::isClassOnly);
+    }
+
+    /*
+     * Shading style mappings that only move packages and rename classes don't need any of the
+     * member resolution, so we can skip walking the inheritance and just rename the types.
+     */
+    private static boolean isClassOnly(IMappingFile map) {
+        boolean ret = map.getClasses().stream().allMatch(c -> c.getFields().isEmpty() && c.getMethods().isEmpty());
+        if (ret)
+            Log.info("Mapping has no members, only remapping class names");
+        return ret;
     }
 
     @Override public String mapModuleName(final String name) { return name; } // TODO? None of the mapping formats support this.
@@ -56,9 +93,11 @@ class EnhancedRemapper extends Remapper {
 
     @Override
     public String mapMethodName(final String owner, final String name, final String descriptor) {
+        if (this.classOnly.join())
+            return name;
         return getClass(owner)
             .flatMap(c -> c.getMethod(name, descriptor))
-            .map(MClass.MMethod::getMapped)
+            .map(m -> m.markUsed().getMapped())
             .orElse(name);
     }
 
@@ -69,29 +108,94 @@ class EnhancedRemapper extends Remapper {
 
     @Override
     public String mapFieldName(final String owner, final String name, final String descriptor) {
+        if (this.classOnly.join())
+            return name;
         return getClass(owner)
             .flatMap(c -> c.getField(name, descriptor))
-            .map(MClass.MField::getMapped)
+            .map(f -> f.markUsed().getMapped())
             .orElse(name);
     }
 
     @Override
     public String mapPackageName(final String name) {
-        return this.map.remapPackage(name);
+        return this.getMap().remapPackage(name);
     }
 
     @Override
     public String map(final String name) {
-        return getClass(name).map(MClass::getMapped).orElse(map.remapClass(name));
+        if (this.classOnly.join()) {
+            Set<String> used = this.used;
+            if (used != null && getMap().getClass(name) != null)
+                used.add("CL " + name);
+            return getMap().remapClass(name);
+        }
+        return getClass(name).map(c -> c.markUsed().getMapped()).orElse(getMap().remapClass(name));
     }
 
     public String mapParameterName(final String owner, final String methodName, final String methodDescriptor, final int index, final String paramName) {
+        if (this.classOnly.join())
+            return paramName;
         return getClass(owner)
             .flatMap(c -> c.getMethod(methodName, methodDescriptor))
             .map(m -> m.mapParameter(index, paramName))
             .orElse(paramName);
     }
 
+    /**
+     * Resolves a class and its parents, which propagates mappings between the methods they share.
+     * A parent that is written before its children are resolved would miss names propagated from them,
+     * so this is done for every input class before any class is processed.
+     */
+    void resolve(String cls) {
+        if (needsResolve())
+            getClass(cls);
+    }
+
+    /**
+     * @return false if the mapping only renames classes, so there is nothing to propagate.
+     */
+    boolean needsResolve() {
+        return !this.classOnly.join();
+    }
+
+    /**
+     * Starts recording which mapping entries are used, must be called before anything is resolved.
+     */
+    void trackUsage() {
+        this.used = ConcurrentHashMap.newKeySet();
+    }
+
+    Set<String> getUsed() {
+        Set<String> ret = this.used;
+        return ret == null ? Collections.emptySet() : ret;
+    }
+
+    IMappingFile getMapping() {
+        return getMap();
+    }
+
+    long getResolvedHits() {
+        return resolvedHits.sum();
+    }
+
+    long getResolvedMisses() {
+        return resolvedMisses.sum();
+    }
+
+    long getPropagated() {
+        return propagated.sum();
+    }
+
+    long getConflicts() {
+        return conflicts.sum();
+    }
+
+    private void markUsed(String key) {
+        Set<String> used = this.used;
+        if (used != null)
+            used.add(key);
+    }
+
     private Optional<MClass> getClass(String cls) {
         if (cls == null || cls.charAt(0) == '[') // Enums values() function invokes 'clone' on the array type.
             return Optional.empty();             // I'm pretty sure that i'd require stupid hacky JVM to allow native array methods to be remapped.
@@ -100,11 +204,14 @@ class EnhancedRemapper extends Remapper {
             synchronized(cls.intern()) {
                 ret = resolved.get(cls);
                 if (ret == null) {
+                    resolvedMisses.increment();
                     ret = computeClass(cls);
                     resolved.put(cls, ret);
+                    return ret;
                 }
             }
         }
+        resolvedHits.increment();
         return ret;
     }
 
@@ -113,12 +220,12 @@ class EnhancedRemapper extends Remapper {
     }
 
     private IMappingFile getMap() {
-        return this.map;
+        return this.map.join();
     }
 
     private Optional<MClass> computeClass(String cls) {
         Optional<? extends IClassInfo> icls = this.getInheritance().getClass(cls);
-        IMappingFile.IClass mcls = this.map.getClass(cls);
+        IMappingFile.IClass mcls = this.getMap().getClass(cls);
         if (!icls.isPresent() && mcls == null)
             return Optional.empty();
         return Optional.of(new MClass(icls.orElse(null), mcls));
@@ -129,13 +236,19 @@ class EnhancedRemapper extends Remapper {
         private final IMappingFile.IClass mcls;
         private final String mappedName;
         private final List<MClass> parents;
-        private final Map<String, Optional<MField>> fields = new ConcurrentHashMap<>();
-        private Collection<Optional<MField>> fieldsView = Collections.unmodifiableCollection(fields.values());
-        private final Map<String, Optional<MMethod>> methods = new ConcurrentHashMap<>();
-        private Collection<Optional<MMethod>> methodsView = Collections.unmodifiableCollection(methods.values());
+        /*
+         * Only the members this class declares are stored up front, anything inherited is found by asking the parents.
+         * Copying every parent's members into every class meant each class held its own entries for all of Object's
+         * methods and the rest of its hierarchy. Inherited members are cached once something actually looks them up.
+         */
+        private final Map<String, MField> fields;
+        private final Map<String, MMethod> methods;
+        private final Map<String, MField> inheritedFields = new ConcurrentHashMap<>();
+        private final Map<String, MMethod> inheritedMethods = new ConcurrentHashMap<>();
+        private volatile boolean used;
 
         private void log(String line) {
-            System.out.println(line);
+            Log.info(line);
         }
 
         MClass(IClassInfo icls, IMappingFile.IClass mcls) {
@@ -146,54 +259,56 @@ class EnhancedRemapper extends Remapper {
             this.mcls = mcls;
             this.mappedName = mcls == null ? EnhancedRemapper.this.getMap().remapClass(icls.getName()) : mcls.getMapped();
 
+            Map<String, MField> fields = new HashMap<>();
+            Map<String, MMethod> methods = new HashMap<>();
             if (icls != null) {
                 List<MClass> parents = new ArrayList<>();
                 EnhancedRemapper.this.getClass(icls.getSuper()).ifPresent(parents::add);
                 icls.getInterfaces().stream().map(EnhancedRemapper.this::getClass).forEach(o -> o.ifPresent(parents::add));
-                this.parents = Collections.unmodifiableList(parents);
+                this.parents = parents.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(parents);
 
                 icls.getFields().stream().map(f -> new MField(f, mcls == null ? null : mcls.getField(f.getName())))
-                    .forEach(f -> fields.put(f.getKey(), Optional.of(f)));
+                    .forEach(f -> fields.put(f.getKey(), f));
 
                 icls.getMethods().stream().map(m -> new MMethod(m, mcls == null ? null : mcls.getMethod(m.getName(), m.getDescriptor())))
-                    .forEach(m -> methods.put(m.getKey(), Optional.of(m)));
+                    .forEach(m -> methods.put(m.getKey(), m));
             } else {
                 this.parents = Collections.emptyList();
-                mcls.getFields().stream().map(f -> new MField(null, f)).forEach(f -> fields.put(f.getKey(), Optional.of(f)));
-                mcls.getMethods().stream().map(m -> new MMethod(null, m)).forEach(m -> methods.put(m.getKey(), Optional.of(m)));
+                mcls.getFields().stream().map(f -> new MField(null, f)).forEach(f -> fields.put(f.getKey(), f));
+                mcls.getMethods().stream().map(m -> new MMethod(null, m)).forEach(m -> methods.put(m.getKey(), m));
+            }
+            this.fields = fields.isEmpty() ? Collections.emptyMap() : fields;
+            this.methods = methods.isEmpty() ? Collections.emptyMap() : methods;
+
+            /* There are some weird cases where a field will be referenced as if it were owned by the current class,
+             * but it needs a field from the parent. So we follow the linking spec and look in the parents for fields
+             * we don't have, see getField.
+             *
+             * https://docs.oracle.com/javase/specs/jvms/se16/html/jvms-5.html#jvms-5.4.3.2
+             *
+             * We don't inherit renames for fields like we do with methods, so there is nothing else to do for them here.
+             */
+
+            /* Methods we don't declare are looked up in the parents the same way, but mappings still need to be propagated
+             * between a method and the methods it overrides or implements. That can only happen for a method that we declare,
+             * or one that more than one parent has. Any later parent has to be an interface, so the keys of their
+             * hierarchies are usually small, and we only check those instead of everything we inherit.
+             */
+            Set<String> keys = new LinkedHashSet<>(this.methods.keySet());
+            if (this.parents.size() > 1) {
+                Set<MClass> visited = new HashSet<>();
+                for (MClass cls : this.parents.subList(1, this.parents.size()))
+                    cls.collectMethodKeys(keys, visited);
             }
 
-            for (MClass cls : parents) {
-                for (Optional<MField> fldo : cls.getFields()) {
-                    if (!fldo.isPresent())
-                        continue;
-
-                    MField fld = fldo.orElse(null);
-                    Optional<MField> existing = this.fields.get(fld.getKey());
-                    if (existing == null || !existing.isPresent()) {
-                        /* There are some weird cases where a field will be referenced as if it were owned by the current class,
-                         * but it needs a field from the parent. So lets follow the linking spec and pull
-                         * down fields from parents.
-                         *
-                         * https://docs.oracle.com/javase/specs/jvms/se16/html/jvms-5.html#jvms-5.4.3.2
-                         */
-                        this.fields.put(fld.getKey(), fldo);
-                    } else {
-                        /* Is there any case where we would ever override an existing field?
-                         * We don't inherit renames like we do with methods.
-                         * This loop is just to popular the parent field lists so we can
-                         * have a cache. Trading memory for faster lookups.
-                         *
-                         * We could nuke this all, and move this code to the getter
-                         */
-                    }
-                }
-
-                for (Optional<MMethod> mtdo: cls.getMethods()) {
-                    if (!mtdo.isPresent())
+            for (String key : keys) {
+                // What this class has for the key after each parent, the same as when we copied every parent's members in.
+                MMethod existing = this.methods.get(key);
+                for (MClass cls : this.parents) {
+                    MMethod mtd = cls.findMethod(key);
+                    if (mtd == null)
                         continue;
 
-                    MMethod mtd = mtdo.orElse(null);
                     /* https://docs.oracle.com/javase/specs/jvms/se16/html/jvms-5.html#jvms-5.4.3.3
                      * According to the spec, it does not check access on super classes, but it checks
                      * on interfaces if it is not ACC_PRIVE or ACC_STATIC.
@@ -221,14 +336,12 @@ class EnhancedRemapper extends Remapper {
                     if (cls.isInterface() && !mtd.isInterfaceInheritable())
                         continue;
 
-
-                    Optional<MMethod> existingO = this.methods.get(mtd.getKey());
-                    if (existingO == null || !existingO.isPresent()) {
+                    if (existing == null) {
                         /* If there is none existing, then we pull in what we have found from the parents.
                          * This intentionally uses the same object as the parents so that if we have weird edge
                          * cases, we can migrate the mapping transitively.
                          */
-                        this.methods.put(mtd.getKey(), mtdo);
+                        existing = mtd;
                     } else {
                         /* If the method exists, lets check if there is a mapping entry in the parent.
                          * If there is, and our current one doesn't have a map entry directly, then
@@ -249,10 +362,13 @@ class EnhancedRemapper extends Remapper {
                          *   class C extends A implements B {}
                          *   MD: B/foo()V B/bar()V
                          */
-                        MMethod existing = existingO.orElse(null);
                         if (!existing.hasMapping() && !existing.getName().equals(mtd.getMapped())) {
-                            if (!existing.getMapped().equals(mtd.getMapped()))
+                            if (!existing.getMapped().equals(mtd.getMapped())) {
+                                conflicts.increment();
                                 log("Conflictig propagated mapping for " + existing + " from " + mtd + ": " + existing.getMapped() + " -> " + mtd.getMapped());
+                            }
+                            propagated.increment();
+                            mtd.markUsed();
                             existing.setMapped(mtd.getMapped());
                         }
                         /*
@@ -272,8 +388,12 @@ class EnhancedRemapper extends Remapper {
                          *   the mapping to the interface.
                          */
                         else if (!mtd.hasMapping() && !mtd.getName().equals(existing.getMapped())) {
-                            if (!mtd.getMapped().equals(existing.getMapped()))
+                            if (!mtd.getMapped().equals(existing.getMapped())) {
+                                conflicts.increment();
                                 log("Conflictig propagated mapping for " + mtd + " from " + existing + ": " + mtd.getMapped() + " -> " + existing.getMapped());
+                            }
+                            propagated.increment();
+                            existing.markUsed();
                             mtd.setMapped(existing.getMapped());
                         }
                     }
@@ -281,6 +401,14 @@ class EnhancedRemapper extends Remapper {
             }
         }
 
+        private void collectMethodKeys(Set<String> keys, Set<MClass> visited) {
+            if (!visited.add(this))
+                return;
+            keys.addAll(this.methods.keySet());
+            for (MClass cls : this.parents)
+                cls.collectMethodKeys(keys, visited);
+        }
+
         public String getName() {
             return this.icls != null ? this.icls.getName() : this.mcls.getOriginal();
         }
@@ -289,6 +417,14 @@ class EnhancedRemapper extends Remapper {
             return this.mappedName;
         }
 
+        public MClass markUsed() {
+            if (!this.used && this.mcls != null) {
+                this.used = true;
+                EnhancedRemapper.this.markUsed("CL " + this.mcls.getOriginal());
+            }
+            return this;
+        }
+
         public int getAccess() {
             if (this.icls == null)
                 return ACC_PRIVATE;
@@ -299,29 +435,56 @@ class EnhancedRemapper extends Remapper {
             return (getAccess() & ACC_INTERFACE) != 0;
         }
 
-        public Collection<Optional<MField>> getFields() {
-            return this.fieldsView;
+        /*
+         * Misses aren't cached, almost every miss is a JDK or library member that nothing maps,
+         * and storing them made every class grow with each distinct reference to it.
+         */
+        public Optional<MField> getField(String name, @Nullable String desc) {
+            MField ret = desc == null ? null : findField(name + desc);
+            if (ret == null)
+                ret = findField(name);
+            return Optional.ofNullable(ret);
         }
 
-        public Optional<MField> getField(String name, @Nullable String desc) {
-            if (desc == null) {
-                return this.fields.computeIfAbsent(name, k -> Optional.empty());
-            } else {
-                Optional<MField> ret = this.fields.get(name + desc);
-                if (ret == null) {
-                    ret = getField(name, null);
-                    this.fields.put(name + desc, ret);
-                }
+        @Nullable
+        private MField findField(String key) {
+            MField ret = this.fields.get(key);
+            if (ret == null)
+                ret = this.inheritedFields.get(key);
+            if (ret != null)
                 return ret;
+
+            for (MClass cls : this.parents) {
+                ret = cls.findField(key);
+                if (ret != null) {
+                    this.inheritedFields.put(key, ret);
+                    return ret;
+                }
             }
+            return null;
         }
 
-        public Collection<Optional<MMethod>> getMethods() {
-            return this.methodsView;
+        public Optional<MMethod> getMethod(String name, String desc) {
+            return Optional.ofNullable(findMethod(name + desc));
         }
 
-        public Optional<MMethod> getMethod(String name, String desc) {
-            return this.methods.computeIfAbsent(name + desc, k -> Optional.empty());
+        @Nullable
+        private MMethod findMethod(String key) {
+            MMethod ret = this.methods.get(key);
+            if (ret == null)
+                ret = this.inheritedMethods.get(key);
+            if (ret != null)
+                return ret;
+
+            for (MClass cls : this.parents) {
+                ret = cls.findMethod(key);
+                // Interfaces don't pass down their private or static methods, see the comments in the constructor.
+                if (ret != null && (!cls.isInterface() || ret.isInterfaceInheritable())) {
+                    this.inheritedMethods.put(key, ret);
+                    return ret;
+                }
+            }
+            return null;
         }
 
         @Override
@@ -334,6 +497,7 @@ class EnhancedRemapper extends Remapper {
             private final IMappingFile.IField mfld;
             private final String mappedName;
             private final String key;
+            private volatile boolean used;
 
             MField(IFieldInfo ifld, IMappingFile.IField mfld) {
                 this.ifld = ifld;
@@ -358,6 +522,14 @@ class EnhancedRemapper extends Remapper {
                 return this.key;
             }
 
+            public MField markUsed() {
+                if (!this.used && this.mfld != null) {
+                    this.used = true;
+                    EnhancedRemapper.this.markUsed("FD " + MClass.this.getName() + '/' + this.mfld.getOriginal());
+                }
+                return this;
+            }
+
             @Override
             public String toString() {
                 return MClass.this.getName() + '/' + getName() + ' ' + getDescriptor();
@@ -370,6 +542,7 @@ class EnhancedRemapper extends Remapper {
             private String mappedName;
             private final String[] params;
             private final String key;
+            private volatile boolean used;
 
             MMethod(IMethodInfo imtd, IMappingFile.IMethod mmtd) {
                 this.imtd = imtd;
@@ -414,6 +587,14 @@ class EnhancedRemapper extends Remapper {
                 this.mappedName = name;
             }
 
+            public MMethod markUsed() {
+                if (!this.used && this.mmtd != null) {
+                    this.used = true;
+                    EnhancedRemapper.this.markUsed("MD " + MClass.this.getName() + '/' + this.mmtd.getOriginal() + ' ' + this.mmtd.getDescriptor());
+                }
+                return this;
+            }
+
             public boolean hasMapping() {
                 return this.mmtd != null;
             }
@@ -0,0 +1,84 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.fart.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which entries in a jar get processed, from include and exclude patterns matched against the entry's path.
+ *
+ * <p>Patterns without any wildcards are prefixes, so {@code com/example/} matches everything in that package and its
+ * sub packages. Otherwise they are globs: {@code *} and {@code ?} don't match across a {@code /}, and {@code **} does.
+ * An entry is processed if it matches any include, or there are none, and doesn't match any exclude.</p>
+ */
+class EntryFilter implements Predicate<String> {
+    private final List<Predicate<String>> includes = new ArrayList<>();
+    private final List<Predicate<String>> excludes = new ArrayList<>();
+
+    EntryFilter(List<String> includes, List<String> excludes) {
+        includes.forEach(p -> this.includes.add(compile(p)));
+        excludes.forEach(p -> this.excludes.add(compile(p)));
+    }
+
+    public boolean isEmpty() {
+        return includes.isEmpty() && excludes.isEmpty();
+    }
+
+    @Override
+    public boolean test(String name) {
+        if (!includes.isEmpty() && includes.stream().noneMatch(p -> p.test(name)))
+            return false;
+        return excludes.stream().noneMatch(p -> p.test(name));
+    }
+
+    private static Predicate<String> compile(String pattern) {
+        if (pattern.indexOf('*') == -1 && pattern.indexOf('?') == -1)
+            return name -> name.startsWith(pattern);
+
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (int x = 0; x < pattern.length(); x++) {
+            char c = pattern.charAt(x);
+            if (c != '*' && c != '?') {
+                literal.append(c);
+                continue;
+            }
+            if (literal.length() > 0) {
+                regex.append(Pattern.quote(literal.toString()));
+                literal.setLength(0);
+            }
+            if (c == '?')
+                regex.append("[^/]");
+            else if (x + 1 < pattern.length() && pattern.charAt(x + 1) == '*') {
+                regex.append(".*");
+                x++;
+            } else
+                regex.append("[^/]*");
+        }
+        if (literal.length() > 0)
+            regex.append(Pattern.quote(literal.toString()));
+
+        Pattern compiled = Pattern.compile(regex.toString());
+        return name -> compiled.matcher(name).matches();
+    }
+}
@@ -19,17 +19,35 @@
 
 package net.minecraftforge.fart.internal;
 
+import java.util.function.Supplier;
+
 import net.minecraftforge.fart.api.Transformer;
 
 public abstract class EntryImpl implements Transformer.Entry {
     private final String name;
     private final long time;
-    private final byte[] data;
+    private Supplier<byte[]> loader;
+    private volatile byte[] data;
+    // Once the data has been moved off the heap, it's read back every time someone asks for it.
+    private Supplier<byte[]> stored;
 
     protected EntryImpl(String name, long time, byte[] data) {
+        this(name, time, data, null);
+    }
+
+    /*
+     * Lazy entries only load their data the first time someone asks for it, this lets
+     * us find entries in a single thread and leave the expensive inflating to the workers.
+     */
+    protected EntryImpl(String name, long time, Supplier<byte[]> loader) {
+        this(name, time, null, loader);
+    }
+
+    protected EntryImpl(String name, long time, byte[] data, Supplier<byte[]> loader) {
         this.name = name;
         this.time = time;
         this.data = data;
+        this.loader = loader;
     }
 
     @Override
@@ -44,7 +62,40 @@ public abstract class EntryImpl implements Transformer.Entry {
 
     @Override
     public byte[] getData() {
-        return this.data;
+        byte[] ret = this.data;
+        if (ret == null) {
+            synchronized (this) {
+                if (this.stored != null)
+                    return this.stored.get();
+                ret = this.data;
+                if (ret == null)
+                    ret = this.data = this.loader.get();
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Drops the loaded data if it can be loaded again, used once an input entry has been replaced by its processed version.
+     */
+    synchronized void unload() {
+        if (this.loader != null)
+            this.data = null;
+    }
+
+    /**
+     * Moves the data into the store if it's large enough, after which {@link #getData()} reads a new copy from the store each time.
+     */
+    void store(EntryStore store) {
+        byte[] data = getData();
+        if (!store.accepts(data.length))
+            return;
+        Supplier<byte[]> stored = store.put(data);
+        synchronized (this) {
+            this.stored = stored;
+            this.data = null;
+            this.loader = null;
+        }
     }
 
     public static class ClassEntry extends EntryImpl implements Transformer.ClassEntry {
@@ -53,7 +104,15 @@ public abstract class EntryImpl implements Transformer.Entry {
         private final String className;
 
         public ClassEntry(String name, long time, byte[] data) {
-            super(name, time, data);
+            this(name, time, data, null);
+        }
+
+        public ClassEntry(String name, long time, Supplier<byte[]> data) {
+            this(name, time, null, data);
+        }
+
+        private ClassEntry(String name, long time, byte[] data, Supplier<byte[]> loader) {
+            super(name, time, data, loader);
             if (name.startsWith(VERSION_PREFIX)) {
                 int start = VERSION_PREFIX.length();
                 int idx = name.indexOf('/', start);
@@ -93,6 +152,10 @@ public abstract class EntryImpl implements Transformer.Entry {
             super(name, time, data);
         }
 
+        public ResourceEntry(String name, long time, Supplier<byte[]> data) {
+            super(name, time, data);
+        }
+
         @Override
         public Transformer.ResourceEntry process(Transformer transformer) {
             return transformer.process(this);
@@ -104,6 +167,10 @@ public abstract class EntryImpl implements Transformer.Entry {
             super("META-INF/MANIFEST.MF", time, data);
         }
 
+        public ManifestEntry(long time, Supplier<byte[]> data) {
+            super("META-INF/MANIFEST.MF", time, data);
+        }
+
         @Override
         public Transformer.ManifestEntry process(Transformer transformer) {
             return transformer.process(this);
@@ -0,0 +1,105 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.fart.internal;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Supplier;
+
+/**
+ * Spills large entry data to a temp file, so big resources don't sit in the old generation while the rest of the jar is processed.
+ * The file is only created once something is stored, and is deleted when the store is closed.
+ *
+ * <p>Anything read back goes through the OS page cache, so it usually doesn't touch the disk at all unless memory is tight.</p>
+ */
+class EntryStore implements Closeable {
+    private final long threshold;
+    private FileChannel channel;
+    private long position = 0;
+
+    /**
+     * @param threshold Entries this size or larger are spilled.
+     */
+    EntryStore(long threshold) {
+        this.threshold = threshold;
+    }
+
+    boolean accepts(int size) {
+        return size >= this.threshold;
+    }
+
+    Supplier<byte[]> put(byte[] data) {
+        FileChannel channel;
+        long start;
+        synchronized (this) {
+            try {
+                if (this.channel == null) {
+                    Path file = Files.createTempFile("fart-spill", ".bin");
+                    this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Could not create spill file", e);
+            }
+            channel = this.channel;
+            start = this.position;
+            this.position += data.length;
+        }
+
+        // Each entry has its own region, so workers can write without holding the lock.
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            while (buf.hasRemaining())
+                channel.write(buf, start + buf.position());
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write to spill file", e);
+        }
+
+        int size = data.length;
+        return () -> {
+            byte[] ret = new byte[size];
+            ByteBuffer buf = ByteBuffer.wrap(ret);
+            try {
+                while (buf.hasRemaining()) {
+                    if (channel.read(buf, start + buf.position()) < 0)
+                        throw new EOFException("Spill file is shorter than expected");
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Could not read from spill file", e);
+            }
+            return ret;
+        };
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            if (this.channel != null)
+                this.channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Could not close spill file", e);
+        }
+    }
+}
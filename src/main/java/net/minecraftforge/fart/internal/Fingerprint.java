@@ -0,0 +1,166 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.fart.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Everything that affects the output of a run, stored in a sidecar file next to the output so later runs can tell if there is nothing to do.
+ *
+ * <p>Files are identified by the hash of their contents, but the stored hash is reused as long as the file's size
+ * and modification time haven't changed, so checking an unchanged run doesn't have to read any jars.</p>
+ */
+class Fingerprint {
+    private static final HashFunction HASH = HashFunction.SHA256;
+    static final String EXTENSION = ".fingerprint";
+
+    private final File output;
+    private final File sidecar;
+    private final Map<String, File> files;
+    private final List<String> settings;
+    private final List<File> extraOutputs;
+
+    /**
+     * @param extension The extension of the sidecar file, so different fingerprints of the same output don't overwrite each other.
+     * @param files The files the output is built from, keyed by their role in the run, such as {@code input} or {@code lib0}.
+     * @param settings Everything else that changes the output, in the order it is applied.
+     * @param extraOutputs Other files the run writes, such as checksums. The run has to be redone if any of them are missing.
+     */
+    Fingerprint(File output, String extension, Map<String, File> files, List<String> settings, List<File> extraOutputs) {
+        this.output = output.getAbsoluteFile();
+        this.sidecar = new File(this.output.getPath() + extension);
+        this.files = files;
+        this.settings = settings;
+        this.extraOutputs = extraOutputs;
+    }
+
+    public boolean isUpToDate() {
+        if (!output.exists() || !sidecar.exists() || !extraOutputs.stream().allMatch(File::exists))
+            return false;
+
+        Properties stored = load();
+        // Catches the output being rebuilt or edited by something else since we last wrote it.
+        if (!describe(output, "").equals(stored.getProperty("output")))
+            return false;
+
+        Properties current = new Properties();
+        if (!compute(stored, current).equals(stored.getProperty("fingerprint")))
+            return false;
+
+        // Something was touched without changing, so store the new times to avoid hashing it again next time.
+        if (!current.entrySet().stream().allMatch(e -> e.getValue().equals(stored.get(e.getKey())))) {
+            current.setProperty("fingerprint", stored.getProperty("fingerprint"));
+            current.setProperty("output", stored.getProperty("output"));
+            store(current);
+        }
+        return true;
+    }
+
+    /**
+     * Stores the fingerprint of the current inputs, must be called after the output is written.
+     */
+    public void write() {
+        Properties previous = sidecar.exists() ? load() : new Properties();
+        Properties props = new Properties();
+        props.setProperty("fingerprint", compute(previous, props));
+        props.setProperty("output", describe(output, ""));
+        store(props);
+    }
+
+    private String compute(Properties previous, Properties out) {
+        MessageDigest digest = HASH.get();
+        update(digest, "version " + Version.get());
+        for (String setting : settings)
+            update(digest, "setting " + setting);
+
+        for (Map.Entry<String, File> entry : files.entrySet()) {
+            String key = "file." + entry.getKey();
+            File file = entry.getValue().getAbsoluteFile();
+            String hash = file.exists() ? reuse(previous.getProperty(key), file) : "missing";
+            if (hash == null) {
+                try {
+                    hash = hash(file);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            update(digest, key + ' ' + hash);
+            out.setProperty(key, describe(file, hash));
+        }
+        return HASH.digest(digest);
+    }
+
+    // Stored as "size mtime hash path", the path goes last because it can contain spaces.
+    private static String describe(File file, String hash) {
+        return file.length() + " " + file.lastModified() + ' ' + hash + ' ' + file.getPath();
+    }
+
+    // The stored hash, if the size, modification time and path still match what we saw when it was computed.
+    private static String reuse(String stored, File file) {
+        if (stored == null)
+            return null;
+        String[] pts = stored.split(" ", 4);
+        if (pts.length != 4 || !pts[0].equals(Long.toString(file.length())) || !pts[1].equals(Long.toString(file.lastModified())) || !pts[3].equals(file.getPath()))
+            return null;
+        return pts[2];
+    }
+
+    private static String hash(File file) throws IOException {
+        MessageDigest digest = HASH.get();
+        byte[] buf = new byte[0x10000];
+        try (InputStream is = Files.newInputStream(file.toPath())) {
+            int len;
+            while ((len = is.read(buf)) != -1)
+                digest.update(buf, 0, len);
+        }
+        return HASH.digest(digest);
+    }
+
+    private static void update(MessageDigest digest, String line) {
+        digest.update((line + '\n').getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void store(Properties props) {
+        try (OutputStream os = Files.newOutputStream(sidecar.toPath())) {
+            props.store(os, "Forge Auto Renaming Tool fingerprint, delete to force a rerun");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Properties load() {
+        Properties ret = new Properties();
+        try (InputStream is = Files.newInputStream(sidecar.toPath())) {
+            ret.load(is);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return ret;
+    }
+}
@@ -93,6 +93,13 @@ enum HashFunction {
         return pad(new BigInteger(1, get().digest(data)).toString(16));
     }
 
+    /**
+     * Finishes a digest created by {@link #get()} and returns it in the same format as the other hash methods.
+     */
+    public String digest(MessageDigest digest) {
+        return pad(new BigInteger(1, digest.digest()).toString(16));
+    }
+
     public String pad(String hash) {
         return (pad + hash).substring(hash.length());
     }
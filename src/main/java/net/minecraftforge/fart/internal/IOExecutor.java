@@ -0,0 +1,42 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.fart.internal;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the default executor for blocking work, such as reading libraries.
+ * Java 21 and newer load the version in {@code src/main/java21} instead, which uses virtual threads.
+ */
+final class IOExecutor {
+    private static final AtomicInteger COUNT = new AtomicInteger(0);
+
+    private IOExecutor() {}
+
+    static ExecutorService create(int threads) {
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread ret = new Thread(r, "FART-IO-" + COUNT.incrementAndGet());
+            ret.setDaemon(true);
+            return ret;
+        });
+    }
+}
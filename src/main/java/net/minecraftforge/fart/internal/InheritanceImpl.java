@@ -35,34 +35,105 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+
+import javax.annotation.Nullable;
 
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Type;
-import org.objectweb.asm.tree.ClassNode;
-import org.objectweb.asm.tree.FieldNode;
-import org.objectweb.asm.tree.MethodNode;
 
 import net.minecraftforge.fart.api.Inheritance;
 
 public class InheritanceImpl implements Inheritance {
-    private Map<String, File> sources = new HashMap<>();
-    private Map<String, Optional<ClassInfo>> classes = new ConcurrentHashMap<>();
+    private Map<String, ZipArchive.Entry> sources = new HashMap<>();
+    private final List<ZipArchive> archives = new ArrayList<>();
+    private final LookupCache<String, Optional<ClassInfo>> classes;
+    private Map<String, Supplier<byte[]>> inputs = new ConcurrentHashMap<>();
+    private volatile Executor prefetcher;
+    // Prefetches that are running right now, so close can wait for them before unmapping anything. Guarded by itself, along with closed.
+    // Queued prefetches aren't counted, they may be stuck behind the very job that is closing us, so they skip themselves once we're closed.
+    private final AtomicInteger prefetching = new AtomicInteger(0);
+    private boolean closed = false;
+    @Nullable
+    private final InheritanceImpl parent;
+    // Where the classes we parsed came from, for the stats report. Lookups passed on to the parent are counted there.
+    private final LongAdder inputLoads = new LongAdder();
+    private final LongAdder libraryLoads = new LongAdder();
+    private final LongAdder runtimeLoads = new LongAdder();
+    private final LongAdder missing = new LongAdder();
+
+    public InheritanceImpl() {
+        this(null, 0);
+    }
+
+    /**
+     * Creates an inheritance that only keeps the most recently used classes parsed, for libraries that are kept
+     * around for a long time. Evicted classes are only re-read if the GC has collected them.
+     *
+     * @param cacheSize Roughly how many parsed classes to keep, or zero for no limit.
+     */
+    public InheritanceImpl(int cacheSize) {
+        this(null, cacheSize);
+    }
+
+    /**
+     * Creates an inheritance that asks the parent about any class it doesn't have itself.
+     * Used to layer a single job's input over libraries that are shared between jobs.
+     *
+     * @param parent Inheritance to fall back to, or null to fall back to the runtime classpath.
+     */
+    public InheritanceImpl(@Nullable InheritanceImpl parent) {
+        this(parent, 0);
+    }
+
+    private InheritanceImpl(@Nullable InheritanceImpl parent, int cacheSize) {
+        this.parent = parent;
+        this.classes = new LookupCache<>(cacheSize);
+    }
+
+    LookupCache<String, ?> getCache() {
+        return this.classes;
+    }
+
+    long getInputLoads() {
+        return inputLoads.sum();
+    }
+
+    long getLibraryLoads() {
+        return libraryLoads.sum();
+    }
+
+    long getRuntimeLoads() {
+        return runtimeLoads.sum();
+    }
+
+    long getMissing() {
+        return missing.sum();
+    }
 
     @Override
     public void addLibrary(File path) {
-        try (ZipFile jar = new ZipFile(path)) {
-            Util.forZip(jar, e -> {
+        try {
+            // Libraries stay mapped until we're closed, so looking up a class later doesn't need to reopen the jar.
+            ZipArchive jar = ZipArchive.map(path);
+            archives.add(jar);
+            for (ZipArchive.Entry e : jar.getEntries()) {
                 if (!e.getName().endsWith(".class") || e.getName().startsWith("META-INF"))
-                    return;
+                    continue;
                 String name = e.getName();
                 name = name.substring(0, name.length() - 6);
-                sources.putIfAbsent(name, path);
-            });
+                sources.putIfAbsent(name, e);
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -70,31 +141,129 @@ public class InheritanceImpl implements Inheritance {
 
     @Override
     public Optional<? extends IClassInfo> getClass(String cls) {
+        return getClassInfo(cls);
+    }
+
+    private Optional<ClassInfo> getClassInfo(String cls) {
         return classes.computeIfAbsent(cls, this::computeClassInfo);
     }
 
+    /**
+     * Sets the executor used to load super classes and interfaces in the background.
+     * Anything that resolves a class is almost guaranteed to walk up its parents next,
+     * so we try and have them cached by the time it gets there.
+     *
+     * @param executor Executor to run the loads on, or null to disable prefetching.
+     */
+    public void setPrefetcher(@Nullable Executor executor) {
+        this.prefetcher = executor;
+    }
+
+    private ClassInfo prefetch(ClassInfo cls) {
+        Executor exec = this.prefetcher;
+        if (exec == null)
+            return cls;
+
+        prefetch(exec, cls.getSuper());
+        for (String intf : cls.getInterfaces())
+            prefetch(exec, intf);
+        return cls;
+    }
+
+    private void prefetch(Executor exec, @Nullable String cls) {
+        // Only bother with things we have to read from disk, runtime classes are cheap to look up on demand.
+        if (cls == null || classes.containsKey(cls))
+            return;
+        if (!inputs.containsKey(cls) && !sources.containsKey(cls)) {
+            if (parent != null)
+                parent.prefetch(exec, cls);
+            return;
+        }
+        try {
+            exec.execute(() -> {
+                synchronized (prefetching) {
+                    if (closed)
+                        return;
+                    prefetching.incrementAndGet();
+                }
+                try {
+                    getClass(cls);
+                } finally {
+                    synchronized (prefetching) {
+                        if (prefetching.decrementAndGet() == 0)
+                            prefetching.notifyAll();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // We're shutting down, whoever needs it will load it themselves.
+        }
+    }
+
+    /**
+     * Stops prefetching, waits for any prefetches that are already running, and releases the libraries' memory mappings.
+     * Prefetches that are still queued do nothing once they run, so this never waits on the executor.
+     * Classes that were already parsed can still be looked up, but nothing new can be read from the libraries or inputs.
+     * Input classes are read through the suppliers they were added with, so the input can be closed once this returns.
+     */
+    public void close() {
+        setPrefetcher(null);
+        synchronized (prefetching) {
+            this.closed = true;
+            while (prefetching.get() > 0) {
+                try {
+                    prefetching.wait();
+                } catch (InterruptedException e) {
+                    // Something may still be reading the libraries, so leave the mappings to the GC.
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+        archives.forEach(ZipArchive::close);
+        archives.clear();
+    }
+
+    /*
+     * We don't parse anything here, most input classes are only ever asked about by
+     * their subclasses, so we wait until someone actually looks the class up.
+     */
     @Override
     public void addClass(String name, byte[] value) {
-        this.classes.computeIfAbsent(name, k -> Optional.of(new ClassInfo(value)));
+        addClass(name, () -> value);
+    }
+
+    /**
+     * Adds a class whose data is loaded on demand, typically an input entry that hasn't been inflated yet.
+     */
+    public void addClass(String name, Supplier<byte[]> value) {
+        this.inputs.putIfAbsent(name, value);
     }
 
     private Optional<ClassInfo> computeClassInfo(String name) {
-        File source = sources.get(name);
+        Supplier<byte[]> input = inputs.remove(name);
+        if (input != null) {
+            inputLoads.increment();
+            return Optional.of(prefetch(new ClassInfo(input.get())));
+        }
+
+        ZipArchive.Entry source = sources.get(name);
         if (source != null) {
-            try (ZipFile zf = new ZipFile(source)) {
-                ZipEntry entry = zf.getEntry(name + ".class");
-                if (entry == null)
-                    throw new IllegalStateException("Could not get " + name + ".class entry in " + source.getAbsolutePath());
-                byte[] data = Util.toByteArray(zf.getInputStream(entry));
-                return Optional.of(new ClassInfo(data));
+            libraryLoads.increment();
+            try {
+                return Optional.of(prefetch(new ClassInfo(source.toByteArray())));
             } catch (IOException e) {
-                throw new RuntimeException(e);
+                throw new RuntimeException("Could not read " + source, e);
             }
+        } else if (parent != null) {
+            return parent.getClassInfo(name);
         } else {
             try {
                 Class<?> cls = Class.forName(name.replace('/', '.'), false, this.getClass().getClassLoader());
+                runtimeLoads.increment();
                 return Optional.of(new ClassInfo(cls));
             } catch (ClassNotFoundException ex) {
+                missing.increment();
                 log("Cant Find Class: " + name);
                 return Optional.empty();
             }
@@ -102,7 +271,7 @@ public class InheritanceImpl implements Inheritance {
     }
 
     private void log(String line) {
-        System.out.println(line);
+        Log.info(line);
     }
 
     private static class ClassInfo implements IClassInfo {
@@ -117,26 +286,37 @@ public class InheritanceImpl implements Inheritance {
 
         ClassInfo(byte[] data) {
             ClassReader reader = new ClassReader(data);
-            ClassNode node = new ClassNode();
-            reader.accept(node, ClassReader.SKIP_CODE);
-
-            this.name = node.name;
-            this.access = new Access(node.access);
-            this.superName = node.superName;
-            this.interfaces = node.interfaces.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(node.interfaces);
+            this.name = reader.getClassName();
+            this.superName = reader.getSuperName();
+            String[] interfaces = reader.getInterfaces();
+            this.interfaces = interfaces.length == 0 ? Collections.emptyList() : Collections.unmodifiableList(Arrays.asList(interfaces));
+
+            // All we care about is the header and member declarations, so visit them directly instead of building a ClassNode.
+            int[] access = { reader.getAccess() };
+            Map<String, MethodInfo> mtds = new HashMap<>();
+            Map<String, FieldInfo> flds = new HashMap<>();
+            reader.accept(new ClassVisitor(ASM9) {
+                @Override
+                public void visit(int version, int acc, String name, String signature, String superName, String[] interfaces) {
+                    access[0] = acc; // Includes the pseudo flags that ClassReader adds from attributes
+                }
 
-            if (!node.methods.isEmpty())
-                this.methods = Collections.unmodifiableMap(node.methods.stream().map(MethodInfo::new)
-                    .collect(Collectors.toMap(m -> m.getName() + m.getDescriptor(), Function.identity())));
-            else
-                this.methods = null;
+                @Override
+                public FieldVisitor visitField(int acc, String name, String descriptor, String signature, Object value) {
+                    flds.put(name, new FieldInfo(name, descriptor, acc));
+                    return null;
+                }
 
+                @Override
+                public MethodVisitor visitMethod(int acc, String name, String descriptor, String signature, String[] exceptions) {
+                    mtds.put(name + descriptor, new MethodInfo(name, descriptor, acc));
+                    return null;
+                }
+            }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
 
-            if (!node.fields.isEmpty())
-                this.fields = Collections.unmodifiableMap(node.fields.stream().map(FieldInfo::new)
-                    .collect(Collectors.toMap(FieldInfo::getName, Function.identity())));
-            else
-                this.fields = null;
+            this.access = new Access(access[0]);
+            this.methods = mtds.isEmpty() ? null : Collections.unmodifiableMap(mtds);
+            this.fields = flds.isEmpty() ? null : Collections.unmodifiableMap(flds);
         }
 
         ClassInfo(Class<?> node) {
@@ -217,10 +397,10 @@ public class InheritanceImpl implements Inheritance {
             private final String desc;
             private final Access access;
 
-            public FieldInfo(FieldNode node) {
-                this.name = node.name;
-                this.desc = node.desc;
-                this.access = new Access(node.access);
+            public FieldInfo(String name, String desc, int access) {
+                this.name = name;
+                this.desc = desc;
+                this.access = new Access(access);
             }
 
             public FieldInfo(Field node) {
@@ -259,10 +439,10 @@ public class InheritanceImpl implements Inheritance {
             private final String desc;
             private final Access access;
 
-            MethodInfo(MethodNode node) {
-                this.name = node.name;
-                this.desc = node.desc;
-                this.access = new Access(node.access);
+            MethodInfo(String name, String desc, int access) {
+                this.name = name;
+                this.desc = desc;
+                this.access = new Access(access);
             }
 
             MethodInfo(Method node) {
@@ -0,0 +1,82 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package net.minecraftforge.fart.internal;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Leveled logging for the whole tool. Messages are passed to a single output, which defaults to {@link System#out},
+ * and should be something that doesn't block workers for long, such as {@link AsyncLog}.
+ */
+public final class Log {
+    public enum Level {
+        /** Only errors. */
+        QUIET,
+        /** Configuration, progress, and anything that looks wrong. */
+        NORMAL,
+        /** Everything, including a line for every entry processed. */
+        VERBOSE
+    }
+
+    private static volatile Level level = Level.NORMAL;
+    private static volatile Consumer<String> output = System.out::println;
+
+    private Log() {}
+
+    public static void setLevel(Level value) {
+        level = value;
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    public static boolean isVerbose() {
+        return level == Level.VERBOSE;
+    }
+
+    public static void setOutput(Consumer<String> value) {
+        output = value;
+    }
+
+    public static void error(String line) {
+        output.accept(line);
+    }
+
+    public static void info(String line) {
+        if (level != Level.QUIET)
+            output.accept(line);
+    }
+
+    public static void debug(String line) {
+        if (level == Level.VERBOSE)
+            output.accept(line);
+    }
+
+    /**
+     * Only builds the message if it's going to be logged, for things that are logged per entry.
+     */
+    public static void debug(Supplier<String> line) {
+        if (level == Level.VERBOSE)
+            output.accept(line.get());
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.fart.internal;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import javax.annotation.Nullable;
+
+/**
+ * A concurrent cache that is either unbounded, or holds roughly {@code maxSize} entries and evicts the least recently used.
+ *
+ * <p>Bounded caches are split into segments that each keep their own LRU order, so lookups from different
+ * workers rarely contend on the same lock. Evicted values are kept behind a {@link SoftReference} so that
+ * we only pay to recompute them if the GC actually needed the memory.</p>
+ */
+class LookupCache<K, V> {
+    private static final int SEGMENTS = 16;
+
+    @Nullable
+    private final ConcurrentHashMap<K, V> unbounded;
+    @Nullable
+    private final List<Segment> segments;
+    private final Map<K, SoftValue<K, V>> evicted = new ConcurrentHashMap<>();
+    private final ReferenceQueue<V> queue = new ReferenceQueue<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxSize The maximum number of entries to keep strongly reachable, or zero for no limit.
+     */
+    LookupCache(int maxSize) {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("Cache size can not be negative: " + maxSize);
+        if (maxSize == 0) {
+            this.unbounded = new ConcurrentHashMap<>();
+            this.segments = null;
+        } else {
+            this.unbounded = null;
+            this.segments = new ArrayList<>(SEGMENTS);
+            int perSegment = Math.max(1, (maxSize + SEGMENTS - 1) / SEGMENTS);
+            for (int x = 0; x < SEGMENTS; x++)
+                this.segments.add(new Segment(perSegment));
+        }
+    }
+
+    public boolean isBounded() {
+        return this.segments != null;
+    }
+
+    @Nullable
+    public V get(K key) {
+        V ret = lookup(key);
+        (ret == null ? misses : hits).increment();
+        return ret;
+    }
+
+    /**
+     * Unlike {@link ConcurrentHashMap#computeIfAbsent}, bounded caches run the function without holding a lock,
+     * so two threads may compute the same value. The first one stored wins.
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> func) {
+        if (this.unbounded != null) {
+            V ret = this.unbounded.get(key);
+            if (ret != null) {
+                hits.increment();
+                return ret;
+            }
+            misses.increment();
+            return this.unbounded.computeIfAbsent(key, func);
+        }
+
+        V ret = get(key);
+        if (ret != null)
+            return ret;
+
+        V value = func.apply(key);
+        Segment seg = segment(key);
+        synchronized (seg) {
+            ret = seg.putIfAbsent(key, value);
+        }
+        return ret == null ? value : ret;
+    }
+
+    /**
+     * Checks for the key without counting it as a lookup or touching the LRU order.
+     */
+    public boolean containsKey(K key) {
+        if (this.unbounded != null)
+            return this.unbounded.containsKey(key);
+
+        Segment seg = segment(key);
+        synchronized (seg) {
+            if (seg.containsKey(key))
+                return true;
+        }
+        SoftValue<K, V> ref = evicted.get(key);
+        return ref != null && ref.get() != null;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Nullable
+    private V lookup(K key) {
+        if (this.unbounded != null)
+            return this.unbounded.get(key);
+
+        Segment seg = segment(key);
+        synchronized (seg) {
+            V ret = seg.get(key);
+            if (ret != null)
+                return ret;
+        }
+
+        expunge();
+        SoftValue<K, V> ref = evicted.remove(key);
+        V ret = ref == null ? null : ref.get();
+        if (ret != null) {
+            synchronized (seg) {
+                V existing = seg.putIfAbsent(key, ret);
+                if (existing != null)
+                    ret = existing;
+            }
+        }
+        return ret;
+    }
+
+    private Segment segment(K key) {
+        int hash = key.hashCode();
+        return segments.get((hash ^ (hash >>> 16)) & (SEGMENTS - 1));
+    }
+
+    // Drop the keys of anything the GC has cleared, so the evicted map doesn't grow forever.
+    private void expunge() {
+        Object ref;
+        while ((ref = queue.poll()) != null) {
+            @SuppressWarnings("unchecked")
+            SoftValue<K, V> value = (SoftValue<K, V>)ref;
+            evicted.remove(value.key, value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "hits: " + getHits() + " misses: " + getMisses() + " evictions: " + getEvictions();
+    }
+
+    private class Segment extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+        private final int maxSize;
+
+        Segment(int maxSize) {
+            super(16, 0.75F, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            if (size() <= maxSize)
+                return false;
+            evictions.increment();
+            evicted.put(eldest.getKey(), new SoftValue<>(eldest.getKey(), eldest.getValue(), queue));
+            return true;
+        }
+    }
+
+    private static class SoftValue<K, V> extends SoftReference<V> {
+        private final K key;
+
+        SoftValue(K key, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+    }
+}
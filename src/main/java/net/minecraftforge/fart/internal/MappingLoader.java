@@ -0,0 +1,92 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package net.minecraftforge.fart.internal;
+
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.minecraftforge.srgutils.IMappingFile;
+
+/**
+ * A mapping file given to the builder. It isn't read until a session that uses it starts, and is then parsed on that
+ * session's I/O executor while the libraries are indexed and the input is read. Every job in the session, and any
+ * other session made from the same builder, shares the parsed mapping.
+ */
+class MappingLoader {
+    private final File file;
+    private final CompletableFuture<IMappingFile> map = new CompletableFuture<>();
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    MappingLoader(File file) {
+        this.file = file;
+    }
+
+    File getFile() {
+        return this.file;
+    }
+
+    /**
+     * @return The mapping, which may still be loading. Anything that needs it waits for it the first time it looks something up.
+     */
+    CompletableFuture<IMappingFile> getMapping() {
+        return this.map;
+    }
+
+    /**
+     * Starts parsing the mapping, if no one has yet.
+     */
+    void load(AsyncHelper async) {
+        if (!started.compareAndSet(false, true))
+            return;
+        try {
+            async.executeIO(() -> {
+                try {
+                    map.complete(IMappingFile.load(file));
+                } catch (Throwable e) {
+                    map.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            started.set(false);
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for the mapping to finish loading, so a mapping that can't be read fails the job here with its file name,
+     * instead of from whichever worker happened to need it first.
+     */
+    void join() {
+        try {
+            map.join();
+        } catch (CompletionException e) {
+            throw new RuntimeException("Could not load mapping: " + file.getAbsolutePath(), e.getCause());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.file.getAbsolutePath();
+    }
+}
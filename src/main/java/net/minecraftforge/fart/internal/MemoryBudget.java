@@ -0,0 +1,86 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.fart.internal;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nullable;
+
+/**
+ * Limits how many bytes of entries are being processed at once. Permits are counted in kilobytes so large budgets fit in a {@link Semaphore}.
+ *
+ * <p>Work is throttled by the thread submitting it, so when the budget runs out we simply stop handing out work
+ * until something finishes, instead of every worker holding large buffers and pushing the heap into GC thrashing.</p>
+ */
+class MemoryBudget {
+    // Processing an entry holds its inflated data, the reader and writer buffers, and the new data all at once.
+    private static final int IN_FLIGHT_FACTOR = 3;
+
+    private final Semaphore permits;
+    private final int total;
+    private final LongAdder throttled = new LongAdder();
+
+    /**
+     * @param bytes The number of bytes that may be in flight, zero or less for no limit, or null for half of the maximum heap.
+     * @return null if there is no limit to enforce
+     */
+    @Nullable
+    static MemoryBudget create(@Nullable Long bytes) {
+        if (bytes == null) {
+            long max = Runtime.getRuntime().maxMemory();
+            return max == Long.MAX_VALUE ? null : new MemoryBudget(max / 2);
+        }
+        return bytes <= 0 ? null : new MemoryBudget(bytes);
+    }
+
+    private MemoryBudget(long bytes) {
+        this.total = (int)Math.min(Integer.MAX_VALUE, Math.max(1, bytes >> 10));
+        this.permits = new Semaphore(this.total);
+    }
+
+    /**
+     * Blocks until there is room for work on the given number of bytes. Anything larger than the whole budget
+     * waits until nothing else is running, and then runs on its own.
+     *
+     * @return The permits to hand back to {@link #release(int)} once the work is done.
+     */
+    int acquire(long bytes) throws InterruptedException {
+        int cost = (int)Math.min(this.total, Math.max(1, (bytes * IN_FLIGHT_FACTOR) >> 10));
+        if (!this.permits.tryAcquire(cost)) {
+            this.throttled.increment();
+            this.permits.acquire(cost);
+        }
+        return cost;
+    }
+
+    void release(int cost) {
+        this.permits.release(cost);
+    }
+
+    long getThrottled() {
+        return this.throttled.sum();
+    }
+
+    @Override
+    public String toString() {
+        return (this.total >> 10) + "MB";
+    }
+}
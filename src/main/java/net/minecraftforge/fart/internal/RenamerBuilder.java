@@ -20,23 +20,92 @@
 package net.minecraftforge.fart.internal;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import javax.annotation.Nullable;
 
 import net.minecraftforge.fart.api.Inheritance;
 import net.minecraftforge.fart.api.Renamer;
 import net.minecraftforge.fart.api.Renamer.Builder;
 import net.minecraftforge.fart.api.Transformer;
-import net.minecraftforge.srgutils.IMappingFile;
 
 public class RenamerBuilder implements Builder {
-    private final Inheritance inh = Inheritance.create();
     private File input;
     private File output;
-    private List<File> libraries = new ArrayList<>();
-    private List<Transformer> transformers = new ArrayList<>();
-    private int threads = Runtime.getRuntime().availableProcessors();
+    private File previousInput;
+    private File previousOutput;
+    private boolean skipIfUpToDate = false;
+    // Everything that goes into the fingerprint besides the input, mappings and libraries, in the order it was configured.
+    private final List<String> settings;
+    // Package private so the session can read its configuration from a copy of the builder.
+    final List<MappingLoader> mappings;
+    final List<File> libraries;
+    final List<Function<Inheritance, Transformer>> transformers;
+    int threads = Runtime.getRuntime().availableProcessors();
+    final Set<HashFunction> checksums;
+    int cacheSize = 0;
+    @Nullable
+    Executor executor;
+    @Nullable
+    Executor ioExecutor;
+    @Nullable
+    Long maxMemory;
+    long spillThreshold = 0;
+    final List<String> includes;
+    final List<String> excludes;
+    boolean dropExcluded = false;
+    boolean nestedJars = false;
+    @Nullable
+    List<String> resourcePatterns;
+    boolean xref = false;
+    @Nullable
+    File statsReport;
+
+    public RenamerBuilder() {
+        this.libraries = new ArrayList<>();
+        this.transformers = new ArrayList<>();
+        this.mappings = new ArrayList<>();
+        this.includes = new ArrayList<>();
+        this.excludes = new ArrayList<>();
+        this.settings = new ArrayList<>();
+        this.checksums = EnumSet.noneOf(HashFunction.class);
+    }
+
+    private RenamerBuilder(RenamerBuilder other) {
+        this.input = other.input;
+        this.output = other.output;
+        this.previousInput = other.previousInput;
+        this.previousOutput = other.previousOutput;
+        this.skipIfUpToDate = other.skipIfUpToDate;
+        this.mappings = new ArrayList<>(other.mappings);
+        this.settings = new ArrayList<>(other.settings);
+        this.libraries = new ArrayList<>(other.libraries);
+        this.transformers = new ArrayList<>(other.transformers);
+        this.threads = other.threads;
+        this.checksums = EnumSet.copyOf(other.checksums);
+        this.cacheSize = other.cacheSize;
+        this.executor = other.executor;
+        this.ioExecutor = other.ioExecutor;
+        this.maxMemory = other.maxMemory;
+        this.spillThreshold = other.spillThreshold;
+        this.includes = new ArrayList<>(other.includes);
+        this.excludes = new ArrayList<>(other.excludes);
+        this.dropExcluded = other.dropExcluded;
+        this.nestedJars = other.nestedJars;
+        this.xref = other.xref;
+        this.statsReport = other.statsReport;
+        this.resourcePatterns = other.resourcePatterns == null ? null : new ArrayList<>(other.resourcePatterns);
+    }
 
     @Override
     public Builder input(File value) {
@@ -50,6 +119,19 @@ public class RenamerBuilder implements Builder {
         return this;
     }
 
+    @Override
+    public Builder incremental(File previousInput, File previousOutput) {
+        this.previousInput = previousInput;
+        this.previousOutput = previousOutput;
+        return this;
+    }
+
+    @Override
+    public Builder skipIfUpToDate(boolean value) {
+        this.skipIfUpToDate = value;
+        return this;
+    }
+
     @Override
     public Builder lib(File value) {
         this.libraries.add(value);
@@ -58,17 +140,65 @@ public class RenamerBuilder implements Builder {
 
     @Override
     public Builder map(File value) {
-        try {
-            add(Transformer.createRenamer(inh, IMappingFile.load(value)));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        // Large mappings take a while to parse, so the session starts loading it on its I/O executor while we index libraries and read the input.
+        // Nothing is read here, so a run that turns out to be up to date never parses it.
+        // Every job in a session shares the parsed mapping, but gets its own transformer bound to that job's inheritance.
+        MappingLoader map = new MappingLoader(value);
+        ResourceRemapper resources = new ResourceRemapper(map.getMapping());
+        this.transformers.add(inh -> new RenamingTransformer(inh, map.getMapping(), resources));
+        this.settings.add("map " + this.mappings.size());
+        this.mappings.add(map);
         return this;
     }
 
     @Override
     public Builder add(Transformer value) {
-        this.transformers.add(value);
+        this.transformers.add(inh -> value);
+        this.settings.add("add " + value.getClass().getName() + ' ' + value);
+        return this;
+    }
+
+    @Override
+    public Builder include(String pattern) {
+        this.includes.add(pattern);
+        this.settings.add("include " + pattern);
+        return this;
+    }
+
+    @Override
+    public Builder exclude(String pattern) {
+        this.excludes.add(pattern);
+        this.settings.add("exclude " + pattern);
+        return this;
+    }
+
+    @Override
+    public Builder dropExcluded(boolean value) {
+        this.dropExcluded = value;
+        return this;
+    }
+
+    @Override
+    public Builder nestedJars(boolean value) {
+        this.nestedJars = value;
+        return this;
+    }
+
+    @Override
+    public Builder remapResources(String... patterns) {
+        this.resourcePatterns = patterns.length == 0 ? ResourceRemapper.DEFAULT_PATTERNS : Arrays.asList(patterns);
+        return this;
+    }
+
+    @Override
+    public Builder xref(boolean value) {
+        this.xref = value;
+        return this;
+    }
+
+    @Override
+    public Builder statsReport(File value) {
+        this.statsReport = value;
         return this;
     }
 
@@ -78,8 +208,103 @@ public class RenamerBuilder implements Builder {
         return this;
     }
 
+    @Override
+    public Builder checksum(String value) {
+        HashFunction func = Arrays.stream(HashFunction.values()).filter(f -> f.getExtension().equals(value.toLowerCase(Locale.ROOT))).findFirst()
+            .orElseThrow(() -> new IllegalArgumentException("Unknown checksum type: " + value));
+        this.checksums.add(func);
+        return this;
+    }
+
+    @Override
+    public Builder cacheSize(int value) {
+        if (value < 0)
+            throw new IllegalArgumentException("Cache size can not be negative: " + value);
+        this.cacheSize = value;
+        return this;
+    }
+
+    @Override
+    public Builder executor(Executor value) {
+        this.executor = value;
+        return this;
+    }
+
+    @Override
+    public Builder ioExecutor(Executor value) {
+        this.ioExecutor = value;
+        return this;
+    }
+
+    @Override
+    public Builder maxMemory(long value) {
+        this.maxMemory = value;
+        return this;
+    }
+
+    @Override
+    public Builder spillThreshold(long value) {
+        this.spillThreshold = value;
+        return this;
+    }
+
     @Override
     public Renamer build() {
-        return new RenamerImpl(input, output, libraries, transformers, inh, threads);
+        // Copy everything now so changes to the builder don't leak into the renamer, but don't start the session until it's run.
+        RenamerBuilder config = new RenamerBuilder(this);
+        return new RenamerImpl(input, output, previousInput, previousOutput, skipIfUpToDate ? fingerprint() : null, () -> new RenamerSession(config));
+    }
+
+    private Fingerprint fingerprint() {
+        Map<String, File> files = new LinkedHashMap<>();
+        files.put("input", input);
+        files.putAll(files());
+        List<File> extraOutputs = new ArrayList<>();
+        for (HashFunction func : checksums)
+            extraOutputs.add(new File(output.getAbsolutePath() + '.' + func.getExtension()));
+        if (xref)
+            extraOutputs.add(new File(output.getAbsolutePath() + ".xref.jsonl"));
+        if (statsReport != null)
+            extraOutputs.add(statsReport.getAbsoluteFile());
+        return new Fingerprint(output, Fingerprint.EXTENSION, files, settings(), extraOutputs);
+    }
+
+    /**
+     * Everything but the input, stored next to the output of an incremental run. Classes are only copied from a
+     * previous output if it was made with the same settings.
+     */
+    Fingerprint settingsFingerprint(File output) {
+        return new Fingerprint(output, ".settings", files(), settings(), Collections.emptyList());
+    }
+
+    private Map<String, File> files() {
+        Map<String, File> files = new LinkedHashMap<>();
+        for (int x = 0; x < mappings.size(); x++)
+            files.put("map" + x, mappings.get(x).getFile());
+        for (int x = 0; x < libraries.size(); x++)
+            files.put("lib" + x, libraries.get(x));
+        return files;
+    }
+
+    private List<String> settings() {
+        List<String> settings = new ArrayList<>(this.settings);
+        if (dropExcluded)
+            settings.add("dropExcluded");
+        if (nestedJars)
+            settings.add("nestedJars");
+        if (resourcePatterns != null)
+            settings.add("remapResources " + resourcePatterns);
+        for (HashFunction func : checksums)
+            settings.add("checksum " + func.getExtension());
+        if (xref)
+            settings.add("xref");
+        if (statsReport != null)
+            settings.add("statsReport " + statsReport.getAbsolutePath());
+        return settings;
+    }
+
+    @Override
+    public Renamer.Session session() {
+        return new RenamerSession(new RenamerBuilder(this));
     }
 }
@@ -0,0 +1,784 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.fart.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.annotation.Nullable;
+
+import org.objectweb.asm.ClassReader;
+
+import net.minecraftforge.fart.api.Inheritance;
+import net.minecraftforge.fart.api.Renamer;
+import net.minecraftforge.fart.api.Transformer;
+import net.minecraftforge.fart.api.Transformer.Entry;
+
+/**
+ * Holds everything that can be shared between jobs: the thread pool, the library index and
+ * anything the transformer factories capture, such as the mapping.
+ *
+ * <p>Each call to rename gets its own {@link InheritanceImpl} that layers the job's input classes
+ * over the libraries, and fresh transformers created from that inheritance. So jobs can't see
+ * each other's classes and can safely run at the same time.</p>
+ */
+class RenamerSession implements Renamer.Session {
+    private static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+    private static final int CONSTANT_CLASS = 7;
+    private static final String NESTED_PREFIX = "META-INF/jarjar/";
+    private final List<Function<Inheritance, Transformer>> transformers;
+    private final List<MappingLoader> mappings;
+    // Everything but the input, stored next to the output of an incremental run.
+    private final Function<File, Fingerprint> settings;
+    private final Set<HashFunction> checksums;
+    private final long spillThreshold;
+    private final EntryFilter filter;
+    private final boolean dropExcluded;
+    private final boolean nestedJars;
+    @Nullable
+    private final EntryFilter resourceFilter;
+    private final boolean xref;
+    @Nullable
+    private final File statsReport;
+    @Nullable
+    private final StatsReport stats;
+    private final InheritanceImpl libraries;
+    private final AsyncHelper async;
+    private final Future<Void> libs;
+    // Jobs that are running, guarded by itself along with closed. Close waits for them, they may be reading the mapped libraries.
+    private final AtomicInteger running = new AtomicInteger(0);
+    private boolean closed = false;
+
+    /**
+     * @param config A copy of the builder, which this session takes ownership of.
+     */
+    RenamerSession(RenamerBuilder config) {
+        this.transformers = config.transformers;
+        this.mappings = config.mappings;
+        this.settings = config::settingsFingerprint;
+        this.checksums = config.checksums;
+        this.spillThreshold = config.spillThreshold;
+        this.filter = new EntryFilter(config.includes, config.excludes);
+        this.dropExcluded = config.dropExcluded;
+        this.nestedJars = config.nestedJars;
+        this.xref = config.xref;
+        this.statsReport = config.statsReport;
+        this.stats = config.statsReport == null ? null : new StatsReport();
+        this.resourceFilter = config.resourcePatterns == null ? null : new EntryFilter(config.resourcePatterns, Collections.emptyList());
+        this.libraries = new InheritanceImpl(config.cacheSize);
+        MemoryBudget budget = MemoryBudget.create(config.maxMemory);
+        log("Memory budget: " + (budget == null ? "unlimited" : budget));
+        this.async = new AsyncHelper(config.threads, config.executor, config.ioExecutor, budget);
+        List<File> libraries = config.libraries;
+
+        // Parse the mappings on the I/O executor, we wait for them before processing anything, so a broken one fails the job up front.
+        this.mappings.forEach(m -> m.load(async));
+
+        // Indexing the libraries doesn't depend on the input, so start it now and let it run while we read the first input.
+        // Nothing asks the inheritance for library classes until we start processing, so we only wait on it there.
+        this.libs = async.submitIO(() -> {
+            log("Adding Libraries to Inheritance");
+            libraries.forEach(this.libraries::addLibrary);
+            return null;
+        });
+    }
+
+    @Override
+    public void rename(File input, File output) {
+        rename(input.getAbsoluteFile().toPath(), output.getAbsoluteFile().toPath());
+    }
+
+    @Override
+    public void rename(Path input, Path output) {
+        run(() -> {
+            renameFile(input, output);
+            return null;
+        });
+    }
+
+    private void renameFile(Path input, Path output) {
+        if (!Files.exists(input))
+            throw new IllegalArgumentException("Input file not found: " + input.toAbsolutePath());
+
+        log("Reading Input: " + input.toAbsolutePath());
+        // The input is closed once the output is written, entries we didn't change are only read from it while writing.
+        try (EntryStore store = createStore(); ZipArchive in = open(input, output)) {
+            XrefIndex xref = this.xref ? new XrefIndex() : null;
+            List<Entry> newEntries = process(in, null, null, store, libraries, xref);
+            write(output, newEntries, xref);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not parse input: " + input.toAbsolutePath(), e);
+        }
+    }
+
+    @Override
+    public void update(File previousInput, File previousOutput, File input, File output) {
+        update(previousInput.getAbsoluteFile().toPath(), previousOutput.getAbsoluteFile().toPath(), input.getAbsoluteFile().toPath(), output.getAbsoluteFile().toPath());
+    }
+
+    @Override
+    public void update(Path previousInput, Path previousOutput, Path input, Path output) {
+        run(() -> {
+            updateFile(previousInput, previousOutput, input, output);
+            return null;
+        });
+    }
+
+    private void updateFile(Path previousInput, Path previousOutput, Path input, Path output) {
+        if (!Files.exists(input))
+            throw new IllegalArgumentException("Input file not found: " + input.toAbsolutePath());
+        Path previousXref = previousOutput.resolveSibling(previousOutput.getFileName() + ".xref.jsonl");
+        if (!Files.exists(previousInput) || !Files.exists(previousOutput)) {
+            log("Previous input or output is missing, renaming everything");
+            renameFile(input, output);
+        } else if (!isDefault(previousOutput) || !settings.apply(previousOutput.toFile()).isUpToDate()) {
+            log("Previous output was made with different settings, renaming everything");
+            renameFile(input, output);
+        } else if (this.xref && !Files.exists(previousXref)) {
+            log("Previous cross references are missing, renaming everything");
+            renameFile(input, output);
+        } else
+            update(previousInput, previousOutput, previousXref, input, output);
+
+        // Stored once the output is in place, if this fails part way the next run sees the output doesn't match and renames everything.
+        if (isDefault(output))
+            settings.apply(output.toFile()).write();
+    }
+
+    private void update(Path previousInput, Path previousOutput, Path previousXref, Path input, Path output) {
+        log("Reading Input: " + input.toAbsolutePath());
+        log("Previous Input: " + previousInput.toAbsolutePath());
+        log("Previous Output: " + previousOutput.toAbsolutePath());
+        // The previous output is usually what we're about to overwrite, open takes care of not mapping it in that case.
+        try (EntryStore store = createStore(); ZipArchive in = open(input, output);
+             ZipArchive prevIn = open(previousInput, output); ZipArchive prevOut = open(previousOutput, output)) {
+            XrefIndex xref = this.xref ? new XrefIndex() : null;
+            if (xref != null)
+                xref.loadStored(previousXref);
+            List<Entry> newEntries = process(in, prevIn, prevOut, store, libraries, xref);
+            write(output, newEntries, xref);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not parse input: " + input.toAbsolutePath(), e);
+        }
+    }
+
+    private void write(Path output, List<Entry> newEntries, @Nullable XrefIndex xref) {
+        Path parent = output.toAbsolutePath().getParent();
+        if (parent != null && !Files.exists(parent)) {
+            try {
+                Files.createDirectories(parent);
+            } catch (IOException e) {
+                throw new RuntimeException("Could not create output directory: " + parent, e);
+            }
+        }
+
+        log("Writing Output: " + output.toAbsolutePath());
+        // Write to a temp file next to the output and move it into place once it's complete,
+        // the default is to overwrite the input so we don't want to leave a half written jar behind.
+        String fileName = output.getFileName().toString();
+        Path temp = null;
+        try {
+            temp = output.resolveSibling(fileName + ".tmp");
+            WritableByteChannel channel = Files.newByteChannel(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            ChecksumOutputStream out = new ChecksumOutputStream(channel, checksums);
+            try (ZipOutputStream zos = new ZipOutputStream(out)) {
+                writeEntries(zos, newEntries);
+            }
+
+            try {
+                Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING);
+            }
+            temp = null;
+
+            for (Map.Entry<HashFunction, String> checksum : out.getChecksums().entrySet()) {
+                Path sidecar = output.resolveSibling(fileName + '.' + checksum.getKey().getExtension());
+                log("Checksum: " + sidecar);
+                Files.write(sidecar, checksum.getValue().getBytes(StandardCharsets.UTF_8));
+            }
+
+            if (xref != null) {
+                Path sidecar = output.resolveSibling(fileName + ".xref.jsonl");
+                log("Cross references: " + sidecar);
+                Files.write(sidecar, xref.toByteArray());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    log("Failed to delete temp file: " + temp);
+                }
+            }
+        }
+    }
+
+    @Override
+    public byte[] rename(byte[] input) {
+        return run(() -> renameBytes(input));
+    }
+
+    private byte[] renameBytes(byte[] input) {
+        log("Reading Input: " + input.length + " bytes");
+        try (EntryStore store = createStore()) {
+            List<Entry> newEntries;
+            try {
+                newEntries = process(ZipArchive.wrap("memory", input), null, null, store, libraries, null);
+            } catch (IOException e) {
+                throw new RuntimeException("Could not parse input", e);
+            }
+
+            log("Writing Output");
+            return toByteArray(newEntries, input.length);
+        }
+    }
+
+    private byte[] toByteArray(List<Entry> entries, int size) {
+        ByteArrayOutputStream ret = new ByteArrayOutputStream(size);
+        try (ZipOutputStream zos = new ZipOutputStream(ret)) {
+            writeEntries(zos, entries);
+        } catch (IOException e) {
+            throw new RuntimeException(e); // Shouldn't happen, we're writing to memory.
+        }
+        return ret.toByteArray();
+    }
+
+    @Nullable
+    private EntryStore createStore() {
+        return this.spillThreshold > 0 ? new EntryStore(this.spillThreshold) : null;
+    }
+
+    private ZipArchive open(Path input, Path output) throws IOException {
+        // We can only map files on the default file system, and we can't map the input if we're about to overwrite it.
+        boolean overwrite = Files.exists(output) && Files.isSameFile(input, output);
+        if (!overwrite && isDefault(input))
+            return ZipArchive.map(input);
+        return ZipArchive.read(input);
+    }
+
+    private static boolean isOwned(String name) {
+        return name.equals(MANIFEST_NAME) || name.equals(RenamingTransformer.ABSTRACT_FILE);
+    }
+
+    private static boolean isDefault(Path path) {
+        return path.getFileSystem() == FileSystems.getDefault();
+    }
+
+    /**
+     * @param parent The inheritance to layer this jar's classes over, the libraries for the input or the parent jar's for nested jars.
+     * @param xref Index to record the references of the renamed classes in, or null to not collect them.
+     */
+    private List<Entry> process(ZipArchive in, @Nullable ZipArchive previousInput, @Nullable ZipArchive previousOutput, @Nullable EntryStore store, InheritanceImpl parent, @Nullable XrefIndex xref) {
+        InheritanceImpl inh = new InheritanceImpl(parent);
+        try {
+            return processArchive(in, previousInput, previousOutput, store, inh, xref);
+        } finally {
+            // Prefetches may still be reading input classes, wait for them so the caller can close the input.
+            inh.close();
+        }
+    }
+
+    private List<Entry> processArchive(ZipArchive in, @Nullable ZipArchive previousInput, @Nullable ZipArchive previousOutput, @Nullable EntryStore store, InheritanceImpl inh, @Nullable XrefIndex xref) {
+        List<Transformer> transformers = this.transformers.stream().map(f -> f.apply(inh)).collect(Collectors.toList());
+        RenamingTransformer lastRenamer = null;
+        for (Transformer transformer : transformers) {
+            if (transformer instanceof RenamingTransformer) {
+                lastRenamer = (RenamingTransformer)transformer;
+                if (resourceFilter != null)
+                    lastRenamer.remapResources(resourceFilter);
+                if (stats != null)
+                    lastRenamer.getRemapper().trackUsage();
+            }
+        }
+        // Only the last renamer sees the final names.
+        if (xref != null && lastRenamer != null)
+            lastRenamer.collectXref(xref);
+
+        // Only find the entries here, the data is inflated by the workers when they process it.
+        List<Entry> oldEntries = new ArrayList<>();
+        // Entries the filter left out, these are copied as is without being read by any transformer.
+        List<Entry> excluded = new ArrayList<>();
+        int excludedCount = 0;
+        List<Entry> nested = new ArrayList<>();
+        // Remember how big each entry is so the largest can be processed first.
+        Map<Entry, Long> sizes = new IdentityHashMap<>();
+        for (ZipArchive.Entry e : in.getEntries()) {
+            if (e.isDirectory())
+                continue;
+            String name = e.getName();
+            Supplier<byte[]> data = () -> {
+                try {
+                    return e.toByteArray();
+                } catch (IOException ex) {
+                    throw new RuntimeException("Could not read " + e, ex);
+                }
+            };
+
+            Entry entry;
+            if (name.endsWith(".class")) {
+                EntryImpl.ClassEntry cls = new EntryImpl.ClassEntry(name, e.getTime(), data);
+                // Add the original classes to the inheritance map, they are only parsed once something asks for them.
+                // Excluded classes are added as well, included classes may still extend them.
+                // TODO: Multi-Release somehow?
+                if (!name.startsWith("META-INF/"))
+                    inh.addClass(name.substring(0, name.length() - 6), cls::getData);
+                entry = cls;
+            } else if (name.equals(MANIFEST_NAME))
+                entry = new EntryImpl.ManifestEntry(e.getTime(), data);
+            else
+                entry = new EntryImpl.ResourceEntry(name, e.getTime(), data);
+
+            // The manifest and the files the transformers write themselves always go through them, whatever the filter says,
+            // otherwise the manifest could be dropped, or the copy and the regenerated file would both end up in the output.
+            if (!isOwned(name) && !filter.test(name)) {
+                excludedCount++;
+                if (!dropExcluded)
+                    excluded.add(entry);
+                continue;
+            }
+            if (nestedJars && name.startsWith(NESTED_PREFIX) && name.endsWith(".jar")) {
+                nested.add(entry);
+                continue;
+            }
+            oldEntries.add(entry);
+            sizes.put(entry, e.getSize());
+        }
+        if (!filter.isEmpty())
+            log("  Excluded " + excludedCount + " entries" + (dropExcluded ? ", dropping them" : ""));
+
+        /* Disabled until we do something with it
+        // Gather original file Hashes, so that we can detect changes and update the manifest if necessary
+        log("Gathering original hashes");
+        Map<String, String> oldHashes = async.invokeAll(oldEntries,
+            e -> new Pair<>(e.getName(), HashFunction.SHA256.hash(e.getData()))
+        ).stream().collect(Collectors.toMap(Pair::getLeft, Pair::getRight));
+        */
+
+        async.join(libs);
+        mappings.forEach(MappingLoader::join);
+        // Prefetching mostly waits on reading the jars, so it runs on the I/O executor and leaves the workers to process entries.
+        libraries.setPrefetcher(async::executeIO);
+        inh.setPrefetcher(async::executeIO);
+
+        List<String> classes = oldEntries.stream()
+            .filter(e -> e instanceof EntryImpl.ClassEntry && !e.getName().startsWith("META-INF/"))
+            .map(e -> ((EntryImpl.ClassEntry)e).getClassName())
+            .collect(Collectors.toList());
+
+        // Copy the classes that can't have changed from the previous output, instead of processing them again.
+        List<Entry> reused = new ArrayList<>();
+        if (previousInput != null && previousOutput != null) {
+            log("Comparing to previous input");
+            // Excluded classes are compared as well, a change to one of them can still affect the included classes.
+            Map<String, Entry> classEntries = new HashMap<>();
+            List<Entry> candidates = new ArrayList<>(oldEntries);
+            candidates.addAll(excluded);
+            for (Entry e : candidates) {
+                if (e instanceof EntryImpl.ClassEntry && !e.getName().startsWith("META-INF/"))
+                    classEntries.put(((EntryImpl.ClassEntry)e).getClassName(), e);
+            }
+            Set<String> unchanged = findUnchanged(in, previousInput, inh, classEntries);
+            Set<String> reusedNames = new HashSet<>();
+            for (Iterator<Entry> itr = oldEntries.iterator(); itr.hasNext();) {
+                Entry e = itr.next();
+                // TODO: Multi-Release classes aren't in the inheritance, so we can't tell what they depend on.
+                if (!(e instanceof EntryImpl.ClassEntry) || e.getName().startsWith("META-INF/"))
+                    continue;
+                String cls = ((EntryImpl.ClassEntry)e).getClassName();
+                if (!unchanged.contains(cls))
+                    continue;
+
+                String mapped = cls;
+                for (Transformer transformer : transformers) {
+                    if (transformer instanceof RenamingTransformer)
+                        mapped = ((RenamingTransformer)transformer).mapClass(mapped);
+                }
+                ZipArchive.Entry prev = previousOutput.getEntry(mapped + ".class");
+                if (prev == null)
+                    continue; // Not where we expected it, so the previous output was made differently. Process it again.
+
+                reused.add(new EntryImpl.ClassEntry(prev.getName(), prev.getTime(), () -> {
+                    try {
+                        return prev.toByteArray();
+                    } catch (IOException ex) {
+                        throw new RuntimeException("Could not read " + prev, ex);
+                    }
+                }));
+                reusedNames.add(mapped);
+                itr.remove();
+            }
+            log("  Reusing " + reused.size() + " of " + classes.size() + " classes");
+
+            // Parameter names are collected while processing, so keep the ones from the classes we skipped.
+            for (Transformer transformer : transformers) {
+                if (transformer instanceof RenamingTransformer)
+                    ((RenamingTransformer)transformer).addStoredNames(previousOutput, reusedNames);
+            }
+            if (xref != null)
+                xref.keepStored(reusedNames);
+        }
+
+        // Nested jars are whole jobs of their own that wait on the workers, so they run on the I/O executor alongside our entries.
+        // Jars nested inside those are processed on the thread of the job that found them, see AsyncHelper.submitJob.
+        List<Future<Entry>> nestedJobs = new ArrayList<>();
+        for (Entry e : nested)
+            nestedJobs.add(async.submitJob(() -> processNested(e, inh, store)));
+
+        /*
+         * Method names are propagated between classes when their hierarchy is resolved, so a parent can pick up a name from
+         * a subclass. Any class that uses the parent's method can be affected, so every class has to be resolved before any
+         * class is written, otherwise the result would depend on what order they are processed in.
+         * Resources don't use member names, so they're processed alongside the resolution, and only classes wait for it.
+         */
+        List<RenamingTransformer> resolvers = transformers.stream()
+            .filter(t -> t instanceof RenamingTransformer).map(t -> (RenamingTransformer)t)
+            .filter(RenamingTransformer::needsResolve)
+            .collect(Collectors.toList());
+        List<Entry> newEntries;
+        if (resolvers.isEmpty()) {
+            log("Processing entries");
+            newEntries = async.invokeAll(oldEntries, sizes::get, e -> processEntry(transformers, store, e));
+        } else {
+            log("Resolving class hierarchy and processing resources");
+            List<Pair<Long, Supplier<Entry>>> work = new ArrayList<>();
+            List<Entry> classEntries = new ArrayList<>();
+            for (Entry e : oldEntries) {
+                if (e instanceof EntryImpl.ClassEntry)
+                    classEntries.add(e);
+                else
+                    work.add(new Pair<>(sizes.get(e), () -> processEntry(transformers, store, e)));
+            }
+            for (String cls : classes) {
+                work.add(new Pair<>(1L, () -> {
+                    resolvers.forEach(r -> r.resolve(cls));
+                    return null;
+                }));
+            }
+            newEntries = async.invokeAll(work, Pair::getLeft, p -> p.getRight().get());
+
+            log("Processing classes");
+            newEntries.addAll(async.invokeAll(classEntries, sizes::get, e -> processEntry(transformers, store, e)));
+        }
+        newEntries.addAll(reused);
+        nestedJobs.forEach(f -> newEntries.add(async.join(f)));
+        newEntries.addAll(excluded);
+
+        log("Adding extras");
+        transformers.stream().forEach(t -> newEntries.addAll(t.getExtras()));
+
+        Set<String> seen = new HashSet<>();
+        String dupes = newEntries.stream().map(Entry::getName)
+            .filter(n -> !seen.add(n))
+            .sorted()
+            .collect(Collectors.joining(", "));
+        if (!dupes.isEmpty())
+            throw new IllegalStateException("Duplicate entries detected: " + dupes);
+
+        /*
+        log("Collecting new hashes");
+        Map<String, String> newHashes = async.invokeAll(newEntries,
+            e -> new Pair<>(e.getName(), HashFunction.SHA256.hash(e.getData()))
+        ).stream().collect(Collectors.toMap(Pair::getLeft, Pair::getRight));
+        */
+
+        // We care about stable output, so sort, and single thread write.
+        log("Sorting");
+        Collections.sort(newEntries, this::compare);
+
+        if (stats != null) {
+            stats.add(inh);
+            for (Transformer transformer : transformers) {
+                if (transformer instanceof RenamingTransformer)
+                    stats.add(((RenamingTransformer)transformer).getRemapper());
+            }
+        }
+        return newEntries;
+    }
+
+    /**
+     * Renames a jar inside the jar being processed, against the same mapping and with the parent's classes and libraries
+     * visible through its inheritance. It's read and written in memory and replaces the original entry.
+     */
+    private Entry processNested(Entry entry, InheritanceImpl parent, @Nullable EntryStore store) {
+        log("Processing nested jar: " + entry.getName());
+        byte[] data = entry.getData();
+        List<Entry> entries;
+        try {
+            entries = process(ZipArchive.wrap(entry.getName(), data), null, null, store, parent, null);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not parse nested jar: " + entry.getName(), e);
+        }
+        Entry ret = new EntryImpl.ResourceEntry(entry.getName(), entry.getTime(), toByteArray(entries, data.length));
+        if (store != null)
+            ((EntryImpl)ret).store(store);
+        return ret;
+    }
+
+    /**
+     * Finds the classes whose output can't have changed since the previous run. A class is processed again if it was
+     * added or changed, if it extends or implements a class that was added, removed or changed, or if it references
+     * one of those classes. Member names are resolved through the owner's hierarchy, so any of those could now
+     * resolve to different names.
+     *
+     * <p>A class can also pass a method name up to its parents, so the parents of those classes, before and after
+     * the change, are processed again along with everything that extends or references them.</p>
+     *
+     * <p>This assumes the mapping, libraries and transformers are the same as the previous run, which the caller checks.</p>
+     */
+    private Set<String> findUnchanged(ZipArchive in, ZipArchive previous, InheritanceImpl inh, Map<String, Entry> classes) {
+        Set<String> changed = new HashSet<>();
+        try {
+            for (String cls : classes.keySet()) {
+                ZipArchive.Entry prev = previous.getEntry(cls + ".class");
+                if (prev == null || !isSameData(in.getEntry(cls + ".class"), prev))
+                    changed.add(cls);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not compare to previous input: " + previous, e);
+        }
+        for (ZipArchive.Entry e : previous.getEntries()) {
+            String name = e.getName();
+            if (name.endsWith(".class") && !name.startsWith("META-INF/") && in.getEntry(name) == null)
+                changed.add(name.substring(0, name.length() - 6));
+        }
+        log("  " + changed.size() + " classes were added, removed or changed");
+
+        // Libraries can't extend our classes, so only walk up through the classes in this jar.
+        Deque<String> parents = new ArrayDeque<>();
+        try {
+            for (String cls : changed) {
+                if (classes.containsKey(cls))
+                    inh.getClass(cls).ifPresent(info -> addParents(parents, info.getSuper(), info.getInterfaces()));
+                ZipArchive.Entry prev = previous.getEntry(cls + ".class");
+                if (prev != null) {
+                    ClassReader reader = new ClassReader(prev.toByteArray());
+                    addParents(parents, reader.getSuperName(), Arrays.asList(reader.getInterfaces()));
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read previous input: " + previous, e);
+        }
+        while (!parents.isEmpty()) {
+            String parent = parents.pop();
+            if (classes.containsKey(parent) && changed.add(parent))
+                inh.getClass(parent).ifPresent(info -> addParents(parents, info.getSuper(), info.getInterfaces()));
+        }
+
+        Map<String, List<String>> children = new HashMap<>();
+        for (String cls : classes.keySet()) {
+            inh.getClass(cls).ifPresent(info -> {
+                if (info.getSuper() != null)
+                    children.computeIfAbsent(info.getSuper(), k -> new ArrayList<>()).add(cls);
+                for (String parent : info.getInterfaces())
+                    children.computeIfAbsent(parent, k -> new ArrayList<>()).add(cls);
+            });
+        }
+
+        Deque<String> queue = new ArrayDeque<>(changed);
+        while (!queue.isEmpty()) {
+            for (String child : children.getOrDefault(queue.pop(), Collections.emptyList())) {
+                if (changed.add(child))
+                    queue.add(child);
+            }
+        }
+
+        if (!changed.isEmpty()) {
+            Set<String> affected = new HashSet<>(changed);
+            List<String> others = classes.keySet().stream().filter(c -> !affected.contains(c)).collect(Collectors.toList());
+            changed.addAll(async.invokeAll(others, c -> 1, c -> referencesAny(classes.get(c).getData(), affected) ? c : null));
+        }
+
+        Set<String> ret = new HashSet<>(classes.keySet());
+        ret.removeAll(changed);
+        return ret;
+    }
+
+    private static void addParents(Deque<String> queue, @Nullable String superName, Collection<String> interfaces) {
+        if (superName != null)
+            queue.add(superName);
+        queue.addAll(interfaces);
+    }
+
+    private static boolean referencesAny(byte[] data, Set<String> classes) {
+        ClassReader reader = new ClassReader(data);
+        char[] buf = new char[reader.getMaxStringLength()];
+        for (int x = 1; x < reader.getItemCount(); x++) {
+            // The second slot of longs and doubles has no offset.
+            int offset = reader.getItem(x);
+            if (offset != 0 && reader.readByte(offset - 1) == CONSTANT_CLASS && classes.contains(reader.readUTF8(offset, buf)))
+                return true;
+        }
+        return false;
+    }
+
+    // Compares the stored bytes, so we don't need to inflate anything. The same data compressed differently counts as a change.
+    private static boolean isSameData(ZipArchive.Entry a, ZipArchive.Entry b) throws IOException {
+        return a.getCrc() == b.getCrc() && a.getSize() == b.getSize() && a.getMethod() == b.getMethod() &&
+            a.getRawData().equals(b.getRawData());
+    }
+
+    private void writeEntries(ZipOutputStream zos, List<Entry> entries) throws IOException {
+        Set<String> seen = new HashSet<>();
+        for (Entry e : entries) {
+            String name = e.getName();
+            int idx = name.lastIndexOf('/');
+            if (idx != -1)
+                addDirectory(zos, seen, name.substring(0, idx));
+
+            Log.debug(() -> "  " + name);
+            ZipEntry entry = new ZipEntry(name);
+            entry.setTime(e.getTime());
+            zos.putNextEntry(entry);
+            zos.write(e.getData());
+            zos.closeEntry();
+        }
+    }
+
+    // Tho Directory entries are not strictly necessary, we add them because some bad implementations of Zip extractors
+    // attempt to extract files without making sure the parents exist.
+    private void addDirectory(ZipOutputStream zos, Set<String> seen, String path) throws IOException {
+        if (!seen.add(path))
+            return;
+
+        int idx = path.lastIndexOf('/');
+        if (idx != -1)
+            addDirectory(zos, seen, path.substring(0, idx));
+
+        Log.debug(() -> "  " + path + '/');
+        ZipEntry dir = new ZipEntry(path + '/');
+        dir.setTime(Entry.STABLE_TIMESTAMP);
+        zos.putNextEntry(dir);
+        zos.closeEntry();
+    }
+
+    private <T> T run(Supplier<T> job) {
+        synchronized (running) {
+            if (closed)
+                throw new IllegalStateException("Session is closed");
+            running.incrementAndGet();
+        }
+        try {
+            return job.get();
+        } finally {
+            synchronized (running) {
+                if (running.decrementAndGet() == 0)
+                    running.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        // Jobs on other threads may still be reading library classes, which would crash once they're unmapped.
+        synchronized (running) {
+            if (closed)
+                return;
+            closed = true;
+            boolean interrupted = false;
+            while (running.get() > 0) {
+                try {
+                    running.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+
+        try {
+            async.join(libs);
+        } catch (RuntimeException e) {
+            // Already reported to whichever job needed the libraries, we only need to know nothing is still adding them.
+        }
+        // Unmap the libraries before the executors stop, so prefetches already queued on them can still finish.
+        libraries.close();
+        async.shutdown();
+        LookupCache<String, ?> cache = libraries.getCache();
+        if (cache.isBounded())
+            log("Library class cache: " + cache);
+        if (stats != null) {
+            log("Stats report: " + statsReport.getAbsolutePath());
+            stats.write(statsReport.toPath(), libraries);
+        }
+    }
+
+    private void log(String line) {
+        Log.info(line);
+    }
+
+    private Entry processEntry(final List<Transformer> transformers, @Nullable final EntryStore store, final Entry start) {
+        start.getData(); // Make sure we inflate on the worker, even if no transformer looks at the data.
+        Entry entry = start;
+        for (Transformer transformer : transformers) {
+            entry = entry.process(transformer);
+            if (entry == null)
+                break;
+        }
+
+        // Nothing needs the original data once it's been replaced, it can be inflated again if someone does.
+        if (entry != start && start instanceof EntryImpl)
+            ((EntryImpl)start).unload();
+        if (store != null && entry instanceof EntryImpl)
+            ((EntryImpl)entry).store(store);
+        return entry;
+    }
+
+    private int compare(Entry o1, Entry o2) {
+        // In order for JarInputStream to work, MANIFEST has to be the first entry, so make it first!
+        if (MANIFEST_NAME.equals(o1.getName()))
+            return MANIFEST_NAME.equals(o2.getName()) ? 0 : -1;
+        if (MANIFEST_NAME.equals(o2.getName()))
+            return MANIFEST_NAME.equals(o1.getName()) ? 0 :  1;
+        return o1.getName().compareTo(o2.getName());
+    }
+}
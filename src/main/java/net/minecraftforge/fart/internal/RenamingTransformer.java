@@ -19,14 +19,18 @@
 
 package net.minecraftforge.fart.internal;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
+import javax.annotation.Nullable;
+
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.commons.ClassRemapper;
@@ -36,19 +40,37 @@ import net.minecraftforge.fart.api.Transformer;
 import net.minecraftforge.srgutils.IMappingFile;
 
 public class RenamingTransformer implements Transformer {
-    private static final String ABSTRACT_FILE = "fernflower_abstract_parameter_names.txt";
+    static final String ABSTRACT_FILE = "fernflower_abstract_parameter_names.txt";
+    private static final String SERVICES = "META-INF/services/";
     private final EnhancedRemapper remapper;
+    private final ResourceRemapper resources;
     private final Set<String> abstractParams = ConcurrentHashMap.newKeySet();
+    @Nullable
+    private EntryFilter resourceFilter;
+    @Nullable
+    private XrefIndex xref;
 
     public RenamingTransformer(Inheritance inh, IMappingFile map) {
+        this(inh, CompletableFuture.completedFuture(map));
+    }
+
+    public RenamingTransformer(Inheritance inh, CompletableFuture<IMappingFile> map) {
+        this(inh, map, new ResourceRemapper(map));
+    }
+
+    /**
+     * @param resources Index of the mapping's class names, shared by every transformer using the same mapping so it's only built once.
+     */
+    RenamingTransformer(Inheritance inh, CompletableFuture<IMappingFile> map, ResourceRemapper resources) {
         this.remapper = new EnhancedRemapper(inh, map);
+        this.resources = resources;
     }
 
     @Override
     public ClassEntry process(ClassEntry entry) {
         ClassReader reader = new ClassReader(entry.getData());
         ClassWriter writer = new ClassWriter(reader, 0);
-        ClassRemapper remapper = new EnhancedClassRemapper(writer, this.remapper, this);
+        ClassRemapper remapper = new EnhancedClassRemapper(xref == null ? writer : xref.visitor(writer), this.remapper, this);
 
         reader.accept(remapper, 0);
 
@@ -62,14 +84,27 @@ public class RenamingTransformer implements Transformer {
 
     @Override
     public ManifestEntry process(ManifestEntry entry) {
-        return entry;
+        if (resourceFilter == null)
+            return entry;
+        byte[] data = resources.remapManifest(entry.getData());
+        return data == null ? entry : ManifestEntry.create(entry.getTime(), data);
     }
 
     @Override
     public ResourceEntry process(ResourceEntry entry) {
-        if (ABSTRACT_FILE.equals(entry.getName()))
+        String name = entry.getName();
+        if (ABSTRACT_FILE.equals(name))
             return null;
-        return entry;
+        if (resourceFilter == null || !resourceFilter.test(name))
+            return entry;
+
+        // Service files are named after the interface they provide, and list a class per line.
+        boolean service = name.startsWith(SERVICES);
+        byte[] data = service ? resources.remapLines(entry.getData()) : resources.remap(entry.getData());
+        String newName = service ? SERVICES + resources.remapLines(name.substring(SERVICES.length())) : name;
+        if (data == null && newName.equals(name))
+            return entry;
+        return ResourceEntry.create(newName, entry.getTime(), data == null ? entry.getData() : data);
     }
 
     @Override
@@ -80,6 +115,55 @@ public class RenamingTransformer implements Transformer {
         return Arrays.asList(ResourceEntry.create(ABSTRACT_FILE, Entry.STABLE_TIMESTAMP, data));
     }
 
+    /**
+     * Replaces the names of renamed classes in resources matching the filter, and in the manifest.
+     */
+    void remapResources(EntryFilter filter) {
+        this.resourceFilter = filter;
+    }
+
+    /**
+     * Records the references of every renamed class in the index, using their new names.
+     */
+    void collectXref(XrefIndex index) {
+        this.xref = index;
+    }
+
+    EnhancedRemapper getRemapper() {
+        return this.remapper;
+    }
+
+    void resolve(String className) {
+        this.remapper.resolve(className);
+    }
+
+    boolean needsResolve() {
+        return this.remapper.needsResolve();
+    }
+
+    String mapClass(String className) {
+        return this.remapper.map(className);
+    }
+
+    /**
+     * Keeps the stored parameter names of classes that are copied from a previous output instead of being processed.
+     * @param classes The renamed names of the copied classes.
+     */
+    void addStoredNames(ZipArchive previous, Set<String> classes) {
+        ZipArchive.Entry entry = previous.getEntry(ABSTRACT_FILE);
+        if (entry == null)
+            return;
+        try {
+            for (String line : new String(entry.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+                int idx = line.indexOf(' ');
+                if (idx != -1 && classes.contains(line.substring(0, idx)))
+                    abstractParams.add(line);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read " + entry, e);
+        }
+    }
+
     void storeNames(String className, String methodName, String methodDescriptor, Collection<String> paramNames) {
         abstractParams.add(className + ' ' + methodName + ' ' + methodDescriptor + ' ' + paramNames.stream().collect(Collectors.joining(" ")));
     }
@@ -0,0 +1,349 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.fart.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import javax.annotation.Nullable;
+
+import net.minecraftforge.srgutils.IMappingFile;
+
+/**
+ * Rewrites class names in text resources, such as service files, mixin configs, refmaps and access transformers.
+ *
+ * <p>The original names of every renamed class and package are put in a trie once, in both their internal and dotted
+ * forms, and shared by every job that uses the same mapping. Each resource is then rewritten in a single pass: for
+ * every name, we walk the trie to see if it starts with a renamed class or package, and only then look it up with
+ * {@link IMappingFile#remapClass(String)}, the same as the classes themselves are renamed. So inner classes of a renamed
+ * class are renamed as well. Resources are scanned as bytes, so any ASCII compatible encoding works, including UTF-8.</p>
+ *
+ * <p>Names must stand on their own, {@code a.b.C} is not replaced inside {@code x.a.b.C} or {@code a.b.CD}.
+ * Internal names are also replaced in descriptors, such as {@code La/b/C;} or {@code (ILa/b/C;)V}. A name that is
+ * exactly a renamed package, such as the package of a mixin config, is replaced with the new package.</p>
+ *
+ * <p>Classes in the default package, such as obfuscated names like {@code a}, would match every word that happens to be
+ * the same, so they are only replaced in descriptors, and by {@link #remapLines(byte[])} when a line is nothing but the name.</p>
+ */
+class ResourceRemapper {
+    static final List<String> DEFAULT_PATTERNS = Collections.unmodifiableList(Arrays.asList(
+        "META-INF/services/", "META-INF/accesstransformer.cfg", "**mixins*.json", "**refmap.json"));
+    private static final Set<String> MANIFEST_CLASSES = new HashSet<>(Arrays.asList("Main-Class", "Launcher-Agent-Class", "Premain-Class", "Agent-Class"));
+    private static final int MANIFEST_WIDTH = 72;
+
+    private final CompletableFuture<IMappingFile> map;
+    private volatile Node root;
+
+    ResourceRemapper(CompletableFuture<IMappingFile> map) {
+        this.map = map;
+    }
+
+    /**
+     * @return The rewritten data, or null if there was nothing to replace.
+     */
+    @Nullable
+    public byte[] remap(byte[] data) {
+        return remap(data, false);
+    }
+
+    /**
+     * Like {@link #remap(byte[])}, but a line that only has a class name on it, optionally followed by a comment, is
+     * replaced even if the class is in the default package. For files that list a class per line, such as services.
+     *
+     * @return The rewritten data, or null if there was nothing to replace.
+     */
+    @Nullable
+    public byte[] remapLines(byte[] data) {
+        return remap(data, true);
+    }
+
+    public String remapLines(String value) {
+        byte[] ret = remapLines(value.getBytes(StandardCharsets.UTF_8));
+        return ret == null ? value : new String(ret, StandardCharsets.UTF_8);
+    }
+
+    @Nullable
+    private byte[] remap(byte[] data, boolean lines) {
+        Node root = getRoot();
+        ByteArrayOutputStream out = null;
+        int copied = 0;
+        int x = 0;
+        while (x < data.length) {
+            boolean name = isStart(data, x);
+            boolean descriptor = !name && isDescriptorStart(data, x);
+            if (!name && !descriptor) {
+                x++;
+                continue;
+            }
+
+            int end = x;
+            while (end < data.length && isNamePart(data[end]))
+                end++;
+            byte[] match = null;
+            if (descriptor ? end < data.length && data[end] == ';' : end > x) {
+                // Names in the default package would match every word that happens to be the same, so they need more context.
+                boolean qualified = descriptor || hasSeparator(data, x, end);
+                if (qualified || (lines && isLineStart(data, x) && isLineEnd(data, end)))
+                    match = lookup(root, data, x, end, descriptor);
+            }
+
+            // A descriptor can start inside a name we didn't replace, such as La/b/C; so carry on from the next byte.
+            if (match == null) {
+                x++;
+                continue;
+            }
+
+            if (out == null)
+                out = new ByteArrayOutputStream(data.length + 64);
+            out.write(data, copied, x - copied);
+            out.write(match, 0, match.length);
+            copied = x = end;
+        }
+
+        if (out == null)
+            return null;
+        out.write(data, copied, data.length - copied);
+        return out.toByteArray();
+    }
+
+    /**
+     * Rewrites the attributes of a manifest that name a class, such as {@code Main-Class}. Only the lines that change
+     * are rewrapped, everything else is kept as is.
+     *
+     * @return The rewritten manifest, or null if there was nothing to replace.
+     */
+    @Nullable
+    public byte[] remapManifest(byte[] data) {
+        String text = new String(data, StandardCharsets.UTF_8);
+        List<String> lines = new ArrayList<>(Arrays.asList(text.split("\r\n|\n|\r", -1)));
+        boolean changed = false;
+        for (int x = 0; x < lines.size(); x++) {
+            int idx = lines.get(x).indexOf(": ");
+            if (idx == -1 || !MANIFEST_CLASSES.contains(lines.get(x).substring(0, idx)))
+                continue;
+
+            // Long values are continued on the following lines, each starting with a single space.
+            StringBuilder value = new StringBuilder(lines.get(x).substring(idx + 2));
+            int end = x + 1;
+            while (end < lines.size() && lines.get(end).startsWith(" "))
+                value.append(lines.get(end++).substring(1));
+
+            String mapped = remapLines(value.toString());
+            if (mapped.equals(value.toString()))
+                continue;
+
+            List<String> wrapped = wrap(lines.get(x).substring(0, idx + 2) + mapped);
+            lines.subList(x, end).clear();
+            lines.addAll(x, wrapped);
+            x += wrapped.size() - 1;
+            changed = true;
+        }
+
+        if (!changed)
+            return null;
+        String newline = text.contains("\r\n") ? "\r\n" : "\n";
+        return String.join(newline, lines).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> wrap(String line) {
+        List<String> ret = new ArrayList<>();
+        byte[] data = line.getBytes(StandardCharsets.UTF_8);
+        int start = 0;
+        int width = MANIFEST_WIDTH;
+        while (data.length - start > width) {
+            int end = start + width;
+            // Don't split a multi byte character
+            while ((data[end] & 0xC0) == 0x80)
+                end--;
+            ret.add((start == 0 ? "" : " ") + new String(data, start, end - start, StandardCharsets.UTF_8));
+            start = end;
+            width = MANIFEST_WIDTH - 1;
+        }
+        ret.add((start == 0 ? "" : " ") + new String(data, start, data.length - start, StandardCharsets.UTF_8));
+        return ret;
+    }
+
+    /*
+     * The new name for data[start, end), or null if it isn't renamed. Internal names and descriptors get an internal name,
+     * dotted names and names in the default package, which are mostly on their own line in files that use dotted names, get a dotted one.
+     */
+    @Nullable
+    private byte[] lookup(Node root, byte[] data, int start, int end, boolean descriptor) {
+        boolean cls = false;
+        boolean pkg = false;
+        Node node = root;
+        for (int x = start; x < end && (node = node.get(data[x])) != null; x++) {
+            int next = x + 1;
+            // A renamed class, or an inner class of one, which is named after its outer class.
+            if (node.cls && (next == end || (data[next] == '$' && !hasSeparator(data, next, end))))
+                cls = true;
+            // A class in a renamed package, or the package itself.
+            if (node.pkg && next < end && (data[next] == '/' || data[next] == '.') && !hasSeparator(data, next + 1, end))
+                cls = true;
+            if (node.pkg && next == end)
+                pkg = true;
+        }
+        if (!cls && !pkg)
+            return null;
+
+        String original = new String(data, start, end - start, StandardCharsets.UTF_8);
+        boolean internal = descriptor || original.indexOf('/') != -1;
+        String key = original.replace('.', '/');
+        IMappingFile map = this.map.join();
+        String mapped = cls ? map.remapClass(key) : map.remapPackage(key);
+        if (mapped.equals(key))
+            return null;
+        return bytes(internal ? mapped : mapped.replace('/', '.'));
+    }
+
+    private static boolean hasSeparator(byte[] data, int start, int end) {
+        for (int x = start; x < end; x++) {
+            if (data[x] == '/' || data[x] == '.')
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean isStart(byte[] data, int idx) {
+        return idx == 0 || !isNamePart(data[idx - 1]);
+    }
+
+    /*
+     * A name right after the L of an object type, where the L is the start of a descriptor. It's either on its own,
+     * or follows other parameter types, so anything but primitive types before it has to be the end of a name.
+     */
+    private static boolean isDescriptorStart(byte[] data, int idx) {
+        if (idx == 0 || data[idx - 1] != 'L')
+            return false;
+        int prev = idx - 2;
+        while (prev >= 0 && isPrimitive(data[prev]))
+            prev--;
+        return prev < 0 || !isNamePart(data[prev]);
+    }
+
+    private static boolean isLineStart(byte[] data, int idx) {
+        return idx == 0 || data[idx - 1] == '\n' || data[idx - 1] == '\r';
+    }
+
+    private static boolean isLineEnd(byte[] data, int idx) {
+        for (; idx < data.length && data[idx] != '\n' && data[idx] != '\r' && data[idx] != '#'; idx++) {
+            if (data[idx] != ' ' && data[idx] != '\t')
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isPrimitive(byte b) {
+        return b == 'B' || b == 'C' || b == 'D' || b == 'F' || b == 'I' || b == 'J' || b == 'S' || b == 'Z';
+    }
+
+    private static boolean isNamePart(byte b) {
+        // Anything outside of ASCII is part of a multi byte character, which could be a valid java identifier.
+        return b < 0 || (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '_' || b == '$' || b == '/' || b == '.';
+    }
+
+    private Node getRoot() {
+        Node ret = this.root;
+        if (ret == null) {
+            synchronized (this) {
+                ret = this.root;
+                if (ret == null) {
+                    ret = build(map.join());
+                    this.root = ret;
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static Node build(IMappingFile map) {
+        Node root = new Node();
+        for (IMappingFile.IClass cls : map.getClasses()) {
+            if (cls.getOriginal().equals(cls.getMapped()))
+                continue;
+            add(root, cls.getOriginal()).cls = true;
+            add(root, cls.getOriginal().replace('/', '.')).cls = true;
+        }
+        for (IMappingFile.IPackage pkg : map.getPackages()) {
+            if (pkg.getOriginal().isEmpty() || pkg.getOriginal().equals(pkg.getMapped()))
+                continue;
+            add(root, pkg.getOriginal()).pkg = true;
+            add(root, pkg.getOriginal().replace('/', '.')).pkg = true;
+        }
+        return root;
+    }
+
+    private static Node add(Node root, String key) {
+        Node node = root;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8))
+            node = node.add(b);
+        return node;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Children are kept in sorted arrays instead of maps, there are a lot of nodes and most only have one child.
+    private static class Node {
+        private static final byte[] NO_LABELS = new byte[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        private byte[] labels = NO_LABELS;
+        private Node[] children = NO_CHILDREN;
+        // If this is the end of the original name of a renamed class.
+        private boolean cls;
+        // If this is the end of the original name of a renamed package.
+        private boolean pkg;
+
+        @Nullable
+        Node get(byte label) {
+            int idx = Arrays.binarySearch(labels, label);
+            return idx < 0 ? null : children[idx];
+        }
+
+        Node add(byte label) {
+            int idx = Arrays.binarySearch(labels, label);
+            if (idx >= 0)
+                return children[idx];
+
+            idx = -(idx + 1);
+            byte[] newLabels = new byte[labels.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(labels, 0, newLabels, 0, idx);
+            System.arraycopy(children, 0, newChildren, 0, idx);
+            System.arraycopy(labels, idx, newLabels, idx + 1, labels.length - idx);
+            System.arraycopy(children, idx, newChildren, idx + 1, children.length - idx);
+            Node ret = new Node();
+            newLabels[idx] = label;
+            newChildren[idx] = ret;
+            labels = newLabels;
+            children = newChildren;
+            return ret;
+        }
+    }
+}
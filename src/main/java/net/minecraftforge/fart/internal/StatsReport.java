@@ -0,0 +1,197 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.fart.internal;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import net.minecraftforge.srgutils.IMappingFile;
+
+/**
+ * Adds up the mapping usage and cache counters of every job in a session, and writes them out when the session is closed.
+ *
+ * <p>A mapping entry counts as used if something was renamed with it, or a method name was propagated from it.
+ * In incremental mode the classes copied from the previous output aren't looked at, so entries only they use are reported as unused.</p>
+ */
+class StatsReport {
+    private final List<Usage> mappings = new ArrayList<>();
+    private final Counters input = new Counters();
+    private long jobs;
+
+    /**
+     * Adds the counters of a job's renamer once the job is done.
+     */
+    public synchronized void add(EnhancedRemapper remapper) {
+        IMappingFile map = remapper.getMapping();
+        Usage usage = null;
+        for (Usage u : mappings) {
+            if (u.map == map)
+                usage = u;
+        }
+        if (usage == null) {
+            usage = new Usage(map);
+            mappings.add(usage);
+        }
+        usage.used.addAll(remapper.getUsed());
+        usage.resolvedHits += remapper.getResolvedHits();
+        usage.resolvedMisses += remapper.getResolvedMisses();
+        usage.propagated += remapper.getPropagated();
+        usage.conflicts += remapper.getConflicts();
+    }
+
+    /**
+     * Adds the counters of a job's inheritance once the job is done.
+     */
+    public synchronized void add(InheritanceImpl inh) {
+        jobs++;
+        input.add(inh);
+    }
+
+    public synchronized void write(Path path, InheritanceImpl libraries) {
+        Path parent = path.toAbsolutePath().getParent();
+        try {
+            if (parent != null)
+                Files.createDirectories(parent);
+            try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+                PrintWriter out = new PrintWriter(writer)) {
+                write(out, libraries);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void write(PrintWriter out, InheritanceImpl libraries) {
+        out.println("Forge Auto Renaming Tool v" + Version.get() + " stats for " + jobs + " job" + (jobs == 1 ? "" : "s"));
+
+        for (int x = 0; x < mappings.size(); x++) {
+            Usage usage = mappings.get(x);
+            out.println();
+            out.println("Mapping " + (x + 1));
+            out.println("  Classes: " + usage.count("CL ") + " of " + usage.classes + " used");
+            out.println("  Fields:  " + usage.count("FD ") + " of " + usage.fields + " used");
+            out.println("  Methods: " + usage.count("MD ") + " of " + usage.methods + " used");
+            out.println("  Propagated method names: " + usage.propagated + ", conflicting: " + usage.conflicts);
+            out.println("  Resolved class cache: " + rate(usage.resolvedHits, usage.resolvedMisses));
+        }
+
+        out.println();
+        out.println("Input classes");
+        input.write(out);
+
+        out.println();
+        out.println("Library classes");
+        Counters libs = new Counters();
+        libs.add(libraries);
+        libs.write(out);
+
+        for (int x = 0; x < mappings.size(); x++) {
+            List<String> unused = mappings.get(x).getUnused();
+            out.println();
+            out.println("Unused entries in mapping " + (x + 1) + ": " + unused.size());
+            unused.forEach(out::println);
+        }
+    }
+
+    private static String rate(long hits, long misses) {
+        long total = hits + misses;
+        return "hits: " + hits + " misses: " + misses + (total == 0 ? "" : String.format(Locale.ENGLISH, " (%.1f%% hit rate)", hits * 100.0 / total));
+    }
+
+    private static class Usage {
+        private final IMappingFile map;
+        private final Set<String> used = new HashSet<>();
+        private final int classes;
+        private final int fields;
+        private final int methods;
+        private long resolvedHits;
+        private long resolvedMisses;
+        private long propagated;
+        private long conflicts;
+
+        private Usage(IMappingFile map) {
+            this.map = map;
+            int fields = 0;
+            int methods = 0;
+            for (IMappingFile.IClass cls : map.getClasses()) {
+                fields += cls.getFields().size();
+                methods += cls.getMethods().size();
+            }
+            this.classes = map.getClasses().size();
+            this.fields = fields;
+            this.methods = methods;
+        }
+
+        private long count(String prefix) {
+            return used.stream().filter(s -> s.startsWith(prefix)).count();
+        }
+
+        // In the same format as EnhancedRemapper records the used ones.
+        private List<String> getUnused() {
+            List<IMappingFile.IClass> classes = new ArrayList<>(map.getClasses());
+            classes.sort(Comparator.comparing(IMappingFile.IClass::getOriginal));
+            List<String> ret = new ArrayList<>();
+            for (IMappingFile.IClass cls : classes) {
+                String name = cls.getOriginal();
+                if (!used.contains("CL " + name))
+                    ret.add("CL " + name);
+                cls.getFields().stream().map(f -> "FD " + name + '/' + f.getOriginal()).filter(s -> !used.contains(s)).sorted().forEach(ret::add);
+                cls.getMethods().stream().map(m -> "MD " + name + '/' + m.getOriginal() + ' ' + m.getDescriptor()).filter(s -> !used.contains(s)).sorted().forEach(ret::add);
+            }
+            return ret;
+        }
+    }
+
+    private static class Counters {
+        private long hits;
+        private long misses;
+        private long evictions;
+        private long inputLoads;
+        private long libraryLoads;
+        private long runtimeLoads;
+        private long missing;
+
+        private void add(InheritanceImpl inh) {
+            LookupCache<String, ?> cache = inh.getCache();
+            hits += cache.getHits();
+            misses += cache.getMisses();
+            evictions += cache.getEvictions();
+            inputLoads += inh.getInputLoads();
+            libraryLoads += inh.getLibraryLoads();
+            runtimeLoads += inh.getRuntimeLoads();
+            missing += inh.getMissing();
+        }
+
+        private void write(PrintWriter out) {
+            out.println("  Cache: " + rate(hits, misses) + " evictions: " + evictions);
+            out.println("  Parsed from input: " + inputLoads + ", libraries: " + libraryLoads + ", runtime: " + runtimeLoads + ", not found: " + missing);
+        }
+    }
+}
@@ -46,7 +46,7 @@ class Util {
     }
 
     public static void copy(InputStream input, OutputStream output) throws IOException {
-        byte[] buf = new byte[0x100];
+        byte[] buf = new byte[0x2000];
         int cnt = 0;
         while ((cnt = input.read(buf, 0, buf.length)) != -1) {
             output.write(buf, 0, cnt);
@@ -0,0 +1,68 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package net.minecraftforge.fart.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+public class Version {
+    private static final String VERSION = find();
+
+    private Version() {}
+
+    /**
+     * @return The version from our jar's manifest, or {@code UNKNOWN} when running from classes, such as in a dev environment.
+     */
+    public static String get() {
+        return VERSION;
+    }
+
+    /*
+     * The version is on the net/minecraftforge/fart/ section of the manifest, which the class loader only applies to that
+     * exact package, so we can't ask our own package for it. Read it from the jar instead.
+     */
+    private static String find() {
+        try {
+            CodeSource source = Version.class.getProtectionDomain().getCodeSource();
+            File file = source == null || source.getLocation() == null ? null : new File(source.getLocation().toURI());
+            if (file == null || !file.isFile())
+                return "UNKNOWN";
+
+            try (JarFile jar = new JarFile(file)) {
+                Manifest manifest = jar.getManifest();
+                if (manifest == null)
+                    return "UNKNOWN";
+                Attributes attrs = manifest.getAttributes("net/minecraftforge/fart/");
+                String ver = attrs == null ? null : attrs.getValue(Attributes.Name.IMPLEMENTATION_VERSION);
+                if (ver == null)
+                    ver = manifest.getMainAttributes().getValue(Attributes.Name.IMPLEMENTATION_VERSION);
+                return ver == null ? "UNKNOWN" : ver;
+            }
+        } catch (IOException | URISyntaxException | SecurityException | IllegalArgumentException e) {
+            return "UNKNOWN";
+        }
+    }
+}
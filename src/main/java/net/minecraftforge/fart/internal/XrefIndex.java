@@ -0,0 +1,294 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.fart.internal;
+
+import static org.objectweb.asm.Opcodes.ASM9;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Collects what each class references while it is renamed, by sitting between the remapper and the writer
+ * so it sees every name already mapped without parsing the class again.
+ *
+ * <p>Each worker appends to its own list, and they are merged into one JSON object per line, sorted by class name, once the job is done:</p>
+ * <pre>{"class":"a/B","super":"java/lang/Object","interfaces":[],"fields":["f:I"],"methods":["m(I)V"],
+ *  "types":["a/C"],"fieldRefs":["a/C.g:J"],"methodRefs":["a/C.n()V"]}</pre>
+ */
+class XrefIndex {
+    private static final String CLASS_PREFIX = "{\"class\":\"";
+    private final Queue<List<String>> buffers = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<List<String>> buffer = ThreadLocal.withInitial(() -> {
+        List<String> ret = new ArrayList<>();
+        buffers.add(ret);
+        return ret;
+    });
+
+    private final Map<String, String> stored = new HashMap<>();
+
+    /**
+     * Reads the index written for a previous output, so that classes copied from it can keep their lines.
+     * @see #keepStored(Set)
+     */
+    void loadStored(Path previous) throws IOException {
+        for (String line : Files.readAllLines(previous, StandardCharsets.UTF_8)) {
+            if (!line.startsWith(CLASS_PREFIX))
+                continue;
+            int end = line.indexOf('"', CLASS_PREFIX.length());
+            if (end != -1)
+                stored.put(line.substring(CLASS_PREFIX.length(), end), line);
+        }
+    }
+
+    /**
+     * @param classes The renamed names of the classes copied from the previous output instead of being processed.
+     */
+    void keepStored(Set<String> classes) {
+        for (String cls : classes) {
+            String line = stored.get(cls);
+            if (line != null)
+                buffer.get().add(line);
+        }
+        stored.clear();
+    }
+
+    /**
+     * Wraps the visitor that receives the renamed class.
+     */
+    ClassVisitor visitor(ClassVisitor parent) {
+        return new Collector(parent);
+    }
+
+    /**
+     * Must only be called once every class has been processed.
+     */
+    public byte[] toByteArray() {
+        List<String> lines = new ArrayList<>();
+        buffers.forEach(lines::addAll);
+        lines.sort(null);
+        StringBuilder ret = new StringBuilder();
+        for (String line : lines)
+            ret.append(line).append('\n');
+        return ret.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void append(StringBuilder buf, String key, Collection<String> values) {
+        buf.append(",\"").append(key).append("\":[");
+        boolean first = true;
+        for (String value : values) {
+            if (!first)
+                buf.append(',');
+            quote(buf, value);
+            first = false;
+        }
+        buf.append(']');
+    }
+
+    private static void quote(StringBuilder buf, String value) {
+        buf.append('"');
+        for (int x = 0; x < value.length(); x++) {
+            char c = value.charAt(x);
+            if (c == '"' || c == '\\')
+                buf.append('\\').append(c);
+            else if (c < 0x20)
+                buf.append(String.format("\\u%04x", (int)c));
+            else
+                buf.append(c);
+        }
+        buf.append('"');
+    }
+
+    private class Collector extends ClassVisitor {
+        private String name;
+        private String superName;
+        private final List<String> interfaces = new ArrayList<>();
+        private final List<String> fields = new ArrayList<>();
+        private final List<String> methods = new ArrayList<>();
+        private final Set<String> types = new TreeSet<>();
+        private final Set<String> fieldRefs = new TreeSet<>();
+        private final Set<String> methodRefs = new TreeSet<>();
+
+        private Collector(ClassVisitor parent) {
+            super(ASM9, parent);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            this.name = name;
+            this.superName = superName;
+            if (interfaces != null) {
+                for (String intf : interfaces)
+                    this.interfaces.add(intf);
+            }
+            super.visit(version, access, name, signature, superName, interfaces);
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+            fields.add(name + ':' + descriptor);
+            addType(Type.getType(descriptor));
+            return super.visitField(access, name, descriptor, signature, value);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            methods.add(name + descriptor);
+            addType(Type.getMethodType(descriptor));
+            if (exceptions != null) {
+                for (String ex : exceptions)
+                    addClass(ex);
+            }
+
+            MethodVisitor parent = super.visitMethod(access, name, descriptor, signature, exceptions);
+            return new MethodVisitor(ASM9, parent) {
+                @Override
+                public void visitTypeInsn(int opcode, String type) {
+                    addClass(type);
+                    super.visitTypeInsn(opcode, type);
+                }
+
+                @Override
+                public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+                    addField(owner, name, descriptor);
+                    super.visitFieldInsn(opcode, owner, name, descriptor);
+                }
+
+                @Override
+                public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+                    addMethod(owner, name, descriptor);
+                    super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+                }
+
+                @Override
+                public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+                    addType(Type.getMethodType(descriptor));
+                    addConstant(bootstrapMethodHandle);
+                    for (Object arg : bootstrapMethodArguments)
+                        addConstant(arg);
+                    super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments);
+                }
+
+                @Override
+                public void visitLdcInsn(Object value) {
+                    addConstant(value);
+                    super.visitLdcInsn(value);
+                }
+
+                @Override
+                public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+                    addType(Type.getType(descriptor));
+                    super.visitMultiANewArrayInsn(descriptor, numDimensions);
+                }
+
+                @Override
+                public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+                    if (type != null)
+                        addClass(type);
+                    super.visitTryCatchBlock(start, end, handler, type);
+                }
+            };
+        }
+
+        @Override
+        public void visitEnd() {
+            super.visitEnd();
+            types.remove(name);
+            StringBuilder buf = new StringBuilder("{\"class\":");
+            quote(buf, name);
+            if (superName != null) {
+                buf.append(",\"super\":");
+                quote(buf, superName);
+            }
+            append(buf, "interfaces", interfaces);
+            append(buf, "fields", fields);
+            append(buf, "methods", methods);
+            append(buf, "types", types);
+            append(buf, "fieldRefs", fieldRefs);
+            append(buf, "methodRefs", methodRefs);
+            buffer.get().add(buf.append('}').toString());
+        }
+
+        private void addConstant(Object value) {
+            if (value instanceof Type)
+                addType((Type)value);
+            else if (value instanceof Handle) {
+                Handle handle = (Handle)value;
+                if (handle.getTag() <= Opcodes.H_PUTSTATIC)
+                    addField(handle.getOwner(), handle.getName(), handle.getDesc());
+                else
+                    addMethod(handle.getOwner(), handle.getName(), handle.getDesc());
+            }
+        }
+
+        private void addField(String owner, String name, String descriptor) {
+            addClass(owner);
+            addType(Type.getType(descriptor));
+            fieldRefs.add(owner + '.' + name + ':' + descriptor);
+        }
+
+        private void addMethod(String owner, String name, String descriptor) {
+            addClass(owner);
+            addType(Type.getMethodType(descriptor));
+            methodRefs.add(owner + '.' + name + descriptor);
+        }
+
+        // Array owners and types, such as [Ljava/lang/String;, are reduced to their element type.
+        private void addClass(String internalName) {
+            addType(internalName.charAt(0) == '[' ? Type.getType(internalName) : Type.getObjectType(internalName));
+        }
+
+        private void addType(Type type) {
+            switch (type.getSort()) {
+                case Type.ARRAY:
+                    addType(type.getElementType());
+                    break;
+                case Type.OBJECT:
+                    types.add(type.getInternalName());
+                    break;
+                case Type.METHOD:
+                    for (Type arg : type.getArgumentTypes())
+                        addType(arg);
+                    addType(type.getReturnType());
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
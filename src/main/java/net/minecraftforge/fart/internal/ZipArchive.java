@@ -0,0 +1,491 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package net.minecraftforge.fart.internal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import javax.annotation.Nullable;
+
+/**
+ * A minimal read only zip file that parses the central directory once and hands out
+ * entry data as {@link ByteBuffer} slices of the archive.
+ *
+ * <p>Archives opened with {@link #map(File)} are memory mapped, so looking up a class in a
+ * library doesn't need to open the file again or copy it through streams. The mapping is
+ * released by {@link #close()}, or once the archive is garbage collected if the runtime
+ * doesn't let us release it early. Until then the file is locked on Windows, so don't map
+ * files we intend to overwrite.</p>
+ *
+ * <p>Only what we need to read jars is supported: stored and deflated entries, and Zip64.
+ * Multi disk archives and encryption are not.</p>
+ */
+class ZipArchive implements Closeable {
+    private static final int LOCAL_SIG   = 0x04034b50;
+    private static final int CENTRAL_SIG = 0x02014b50;
+    private static final int END_SIG     = 0x06054b50;
+    private static final int END64_SIG   = 0x06064b50;
+    private static final int LOCATOR_SIG = 0x07064b50;
+    private static final int LOCAL_SIZE = 30;
+    private static final int CENTRAL_SIZE = 46;
+    private static final int END_SIZE = 22;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final int INFLATE_CHUNK = 0x10000;
+    private static final int END64_SIZE = 56;
+    @Nullable
+    private static final Consumer<ByteBuffer> UNMAPPER = findUnmapper();
+
+    private final String name;
+    private final ByteBuffer buf;
+    private final boolean mapped;
+    private final List<Entry> entries;
+    private final Map<String, Entry> byName;
+    private volatile boolean closed = false;
+
+    /**
+     * Memory maps the archive, the file handle is closed before this returns.
+     */
+    public static ZipArchive map(File file) throws IOException {
+        return map(file.toPath());
+    }
+
+    /**
+     * Memory maps the archive, the file handle is closed before this returns.
+     */
+    public static ZipArchive map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("Can not map " + path.toAbsolutePath() + " it is larger than 2GB");
+            return new ZipArchive(path.toAbsolutePath().toString(), channel.map(FileChannel.MapMode.READ_ONLY, 0, size), true);
+        }
+    }
+
+    /**
+     * Reads the entire archive into memory, use this when the file may be replaced while we're still using it.
+     */
+    public static ZipArchive read(File file) throws IOException {
+        return read(file.toPath());
+    }
+
+    /**
+     * Reads the entire archive into memory, use this when the file may be replaced while we're still using it,
+     * or when it lives on a file system we can't map.
+     */
+    public static ZipArchive read(Path path) throws IOException {
+        return new ZipArchive(path.toAbsolutePath().toString(), ByteBuffer.wrap(Files.readAllBytes(path)), false);
+    }
+
+    public static ZipArchive wrap(String name, byte[] data) throws IOException {
+        return new ZipArchive(name, ByteBuffer.wrap(data), false);
+    }
+
+    private ZipArchive(String name, ByteBuffer buf, boolean mapped) throws IOException {
+        this.name = name;
+        this.buf = buf.order(ByteOrder.LITTLE_ENDIAN);
+        this.mapped = mapped;
+
+        int end = findEnd();
+        long count = u16(end + 10);
+        long cenSize = u32(end + 12);
+        long cenOffset = u32(end + 16);
+
+        if (count == 0xFFFF || cenSize == 0xFFFFFFFFL || cenOffset == 0xFFFFFFFFL) {
+            int locator = end - 20;
+            if (locator >= 0 && buf.getInt(locator) == LOCATOR_SIG) {
+                int end64 = index(buf.getLong(locator + 8));
+                if (end64 + END64_SIZE > locator || buf.getInt(end64) != END64_SIG)
+                    throw new ZipException("Invalid Zip64 end of central directory in " + name);
+                count = buf.getLong(end64 + 32);
+                cenSize = buf.getLong(end64 + 40);
+                cenOffset = buf.getLong(end64 + 48);
+            }
+        }
+
+        // Every entry takes at least CENTRAL_SIZE bytes, so a count that doesn't fit is corrupt, and we don't try to allocate for it.
+        if (count < 0 || cenSize < 0 || cenOffset < 0 || cenOffset + cenSize > end || count > cenSize / CENTRAL_SIZE)
+            throw new ZipException("Invalid central directory in " + name);
+
+        int cenEnd = (int)(cenOffset + cenSize);
+        List<Entry> entries = new ArrayList<>((int)count);
+        Map<String, Entry> byName = new HashMap<>((int)count * 2);
+        int pos = (int)cenOffset;
+        for (int x = 0; x < count; x++) {
+            if (pos + CENTRAL_SIZE > cenEnd || buf.getInt(pos) != CENTRAL_SIG)
+                throw new ZipException("Invalid central directory entry at " + pos + " in " + name);
+            int next = pos + CENTRAL_SIZE + u16(pos + 28) + u16(pos + 30) + u16(pos + 32);
+            if (next > cenEnd)
+                throw new ZipException("Truncated central directory entry at " + pos + " in " + name);
+            Entry entry = new Entry(pos);
+            entries.add(entry);
+            byName.putIfAbsent(entry.getName(), entry);
+            pos = next;
+        }
+
+        this.entries = Collections.unmodifiableList(entries);
+        this.byName = byName;
+    }
+
+    private int findEnd() throws ZipException {
+        int min = Math.max(0, buf.capacity() - END_SIZE - 0xFFFF);
+        for (int x = buf.capacity() - END_SIZE; x >= min; x--) {
+            if (buf.getInt(x) == END_SIG)
+                return x;
+        }
+        throw new ZipException("Could not find end of central directory in " + name);
+    }
+
+    private int u16(int pos) {
+        return buf.getShort(pos) & 0xFFFF;
+    }
+
+    private long u32(int pos) {
+        return buf.getInt(pos) & 0xFFFFFFFFL;
+    }
+
+    private int index(long pos) throws ZipException {
+        if (pos < 0 || pos >= buf.capacity())
+            throw new ZipException("Invalid offset " + pos + " in " + name);
+        return (int)pos;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * @return All entries, in the order of the central directory.
+     */
+    public List<Entry> getEntries() {
+        return this.entries;
+    }
+
+    @Nullable
+    public Entry getEntry(String name) {
+        return this.byName.get(name);
+    }
+
+    /**
+     * Releases the memory mapping, if this archive was mapped, so the file is no longer locked. Nothing may read from
+     * the archive or its entries once this is called, make sure anything that might still be is finished first.
+     */
+    @Override
+    public void close() {
+        if (this.closed)
+            return;
+        this.closed = true;
+        if (this.mapped && UNMAPPER != null)
+            UNMAPPER.accept(this.buf);
+    }
+
+    private void ensureOpen() throws ZipException {
+        if (this.closed)
+            throw new ZipException("Archive is closed: " + this.name);
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+
+    /*
+     * Mapped buffers are normally only released once they're garbage collected. There is no public API to release them
+     * early, so we use whichever internal one this runtime has. If there is none the mapping is left to the GC like before.
+     */
+    @Nullable
+    private static Consumer<ByteBuffer> findUnmapper() {
+        try { // Java 9 and newer
+            Class<?> unsafeCls = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeCls.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            Method invokeCleaner = unsafeCls.getMethod("invokeCleaner", ByteBuffer.class);
+            return buf -> {
+                try {
+                    invokeCleaner.invoke(unsafe, buf);
+                } catch (ReflectiveOperationException e) {
+                    Log.debug("Could not unmap archive: " + e);
+                }
+            };
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Not there, so try the Java 8 way.
+        }
+
+        try { // Java 8
+            Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buf -> {
+                try {
+                    Object ret = cleaner.invoke(buf);
+                    if (ret != null)
+                        clean.invoke(ret);
+                } catch (ReflectiveOperationException e) {
+                    Log.debug("Could not unmap archive: " + e);
+                }
+            };
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            Log.debug("Mapped archives can not be released early on this runtime: " + e);
+            return null;
+        }
+    }
+
+    public class Entry {
+        private final String name;
+        private final int flags;
+        private final int method;
+        private final long dosTime;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long localOffset;
+        private final long mtime;
+        private volatile int dataOffset = -1;
+
+        private Entry(int pos) throws ZipException {
+            int nameLen = u16(pos + 28);
+            int extraLen = u16(pos + 30);
+
+            this.flags = u16(pos + 8);
+            this.method = u16(pos + 10);
+            this.dosTime = u32(pos + 12);
+            this.crc = u32(pos + 16);
+            this.name = string(pos + CENTRAL_SIZE, nameLen);
+
+            long csize = u32(pos + 20);
+            long usize = u32(pos + 24);
+            long offset = u32(pos + 42);
+            long mtime = -1;
+
+            int extra = pos + CENTRAL_SIZE + nameLen;
+            int extraEnd = extra + extraLen;
+            while (extra + 4 <= extraEnd) {
+                int tag = u16(extra);
+                int len = u16(extra + 2);
+                int data = extra + 4;
+                if (data + len > extraEnd)
+                    break;
+
+                if (tag == 0x0001) { // Zip64, only the values that overflowed are present, in this order.
+                    int off = data;
+                    if (usize == 0xFFFFFFFFL && off + 8 <= data + len) {
+                        usize = buf.getLong(off);
+                        off += 8;
+                    }
+                    if (csize == 0xFFFFFFFFL && off + 8 <= data + len) {
+                        csize = buf.getLong(off);
+                        off += 8;
+                    }
+                    if (offset == 0xFFFFFFFFL && off + 8 <= data + len)
+                        offset = buf.getLong(off);
+                } else if (tag == 0x5455 && len >= 5 && (buf.get(data) & 0x1) != 0) { // Extended timestamp, same as ZipEntry.getTime
+                    mtime = buf.getInt(data + 1) * 1000L;
+                } else if (tag == 0x000A && len >= 32 && u16(data + 4) == 0x0001 && u16(data + 6) >= 24) { // NTFS, 100ns ticks since 1601
+                    mtime = buf.getLong(data + 8) / 10_000L - 11_644_473_600_000L;
+                }
+                extra = data + len;
+            }
+
+            this.compressedSize = csize;
+            this.size = usize;
+            this.localOffset = offset;
+            this.mtime = mtime;
+        }
+
+        private String string(int pos, int len) {
+            byte[] data = new byte[len];
+            ByteBuffer dup = buf.duplicate();
+            dup.position(pos);
+            dup.get(data);
+            return new String(data, StandardCharsets.UTF_8);
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public boolean isDirectory() {
+            return this.name.endsWith("/");
+        }
+
+        /**
+         * @return The modification time, interpreted the same way as {@link java.util.zip.ZipEntry#getTime()}
+         */
+        public long getTime() {
+            return this.mtime != -1 ? this.mtime : dosToJavaTime(this.dosTime);
+        }
+
+        public int getMethod() {
+            return this.method;
+        }
+
+        public long getCrc() {
+            return this.crc;
+        }
+
+        public long getSize() {
+            return this.size;
+        }
+
+        public long getCompressedSize() {
+            return this.compressedSize;
+        }
+
+        public ZipArchive getArchive() {
+            return ZipArchive.this;
+        }
+
+        private int getDataOffset() throws ZipException {
+            int ret = this.dataOffset;
+            if (ret == -1) {
+                int local = index(this.localOffset);
+                if (local + LOCAL_SIZE > buf.capacity() || buf.getInt(local) != LOCAL_SIG)
+                    throw new ZipException("Invalid local header for " + this.name + " in " + ZipArchive.this.name);
+                ret = this.dataOffset = local + LOCAL_SIZE + u16(local + 26) + u16(local + 28);
+            }
+            return ret;
+        }
+
+        /**
+         * @return The data exactly as it is stored in the archive, compressed or not.
+         */
+        public ByteBuffer getRawData() throws IOException {
+            if ((this.flags & 0x1) != 0)
+                throw new ZipException("Encrypted entries are not supported: " + this.name + " in " + ZipArchive.this.name);
+            ensureOpen();
+            int start = getDataOffset();
+            if (this.compressedSize < 0 || start + this.compressedSize > buf.capacity())
+                throw new ZipException("Truncated entry " + this.name + " in " + ZipArchive.this.name);
+            ByteBuffer dup = buf.duplicate();
+            dup.position(start);
+            dup.limit(start + (int)this.compressedSize);
+            return dup.slice().asReadOnlyBuffer();
+        }
+
+        /**
+         * @return The uncompressed data, stored entries are returned as a slice of the archive without copying.
+         */
+        public ByteBuffer getData() throws IOException {
+            if (this.method == STORED)
+                return getRawData();
+            return ByteBuffer.wrap(toByteArray());
+        }
+
+        public byte[] toByteArray() throws IOException {
+            ByteBuffer raw = getRawData();
+            if (this.method == STORED) {
+                byte[] ret = new byte[raw.remaining()];
+                raw.get(ret);
+                return ret;
+            }
+
+            if (this.method != DEFLATED)
+                throw new ZipException("Unsupported compression method " + this.method + " for " + this.name + " in " + ZipArchive.this.name);
+            if (this.size < 0 || this.size > Integer.MAX_VALUE - 8)
+                throw new ZipException("Entry " + this.name + " in " + ZipArchive.this.name + " is too large to read into memory");
+
+            byte[] ret = new byte[(int)this.size];
+            Inflater inf = new Inflater(true);
+            try {
+                int off = 0;
+                byte[] chunk;
+                if (buf.hasArray()) {
+                    // Everything is already on the heap, so inflate straight from the backing array.
+                    chunk = new byte[1];
+                    inf.setInput(buf.array(), buf.arrayOffset() + getDataOffset(), (int)this.compressedSize);
+                    off = inflate(inf, ret, off);
+                } else {
+                    // Java 8's Inflater only takes arrays, so copy the mapped data through in chunks.
+                    chunk = new byte[Math.min(INFLATE_CHUNK, raw.remaining() + 1)];
+                    while (raw.hasRemaining() && off < ret.length) {
+                        int len = Math.min(chunk.length, raw.remaining());
+                        raw.get(chunk, 0, len);
+                        inf.setInput(chunk, 0, len);
+                        off = inflate(inf, ret, off);
+                    }
+                }
+
+                if (!inf.finished() && off < ret.length) {
+                    // Raw deflate streams may need an extra dummy byte to finish, see Inflater(boolean)
+                    chunk[0] = 0;
+                    inf.setInput(chunk, 0, 1);
+                    inflate(inf, ret, off);
+                }
+
+                if (inf.getBytesWritten() != this.size)
+                    throw new ZipException("Entry " + this.name + " in " + ZipArchive.this.name + " inflated to " + inf.getBytesWritten() + " bytes, expected " + this.size);
+            } catch (DataFormatException e) {
+                throw new ZipException("Invalid compressed data for " + this.name + " in " + ZipArchive.this.name + ": " + e.getMessage());
+            } finally {
+                inf.end();
+            }
+            return ret;
+        }
+
+        private int inflate(Inflater inf, byte[] out, int off) throws DataFormatException {
+            while (off < out.length && !inf.finished()) {
+                int cnt = inf.inflate(out, off, out.length - off);
+                if (cnt == 0 && (inf.needsInput() || inf.needsDictionary()))
+                    break;
+                off += cnt;
+            }
+            return off;
+        }
+
+        @Override
+        public String toString() {
+            return ZipArchive.this.name + '!' + this.name;
+        }
+    }
+
+    // Same conversion ZipEntry uses, DOS times are in the local time zone.
+    @SuppressWarnings("deprecation")
+    private static long dosToJavaTime(long dtime) {
+        Date d = new Date(
+            (int)(((dtime >> 25) & 0x7f) + 80),
+            (int)(((dtime >> 21) & 0x0f) - 1),
+            (int)((dtime >> 16) & 0x1f),
+            (int)((dtime >> 11) & 0x1f),
+            (int)((dtime >> 5) & 0x3f),
+            (int)((dtime << 1) & 0x3e)
+        );
+        return d.getTime();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package net.minecraftforge.fart;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import net.minecraftforge.fart.api.Transformer.ClassEntry;
+
+public class AccessTransformerTest {
+    @Test
+    public void wildcardSkipsInitializers() throws IOException {
+        Map<String, MethodNode> methods = transform("public test/A *()");
+        assertEquals(Opcodes.ACC_PUBLIC, methods.get("foo").access, "Wildcard should widen methods");
+        assertEquals(Opcodes.ACC_PRIVATE, methods.get("<init>").access, "Wildcard should not widen constructors");
+        assertEquals(Opcodes.ACC_STATIC, methods.get("<clinit>").access, "Wildcard should not touch static initializers");
+    }
+
+    @Test
+    public void explicitConstructor() throws IOException {
+        Map<String, MethodNode> methods = transform("public test/A <init>()V");
+        assertEquals(Opcodes.ACC_PUBLIC, methods.get("<init>").access);
+        assertEquals(Opcodes.ACC_PRIVATE, methods.get("foo").access);
+    }
+
+    private static Map<String, MethodNode> transform(String... lines) throws IOException {
+        File cfg = RenamerTest.mapping(lines);
+        try {
+            ClassEntry entry = ClassEntry.create("test/A.class", 0, cls());
+            ClassEntry ret = new AccessTransformer(cfg).process(entry);
+            ClassNode node = new ClassNode();
+            new ClassReader(ret.getData()).accept(node, 0);
+            return node.methods.stream().collect(Collectors.toMap(m -> m.name, Function.identity()));
+        } finally {
+            cfg.delete();
+        }
+    }
+
+    private static byte[] cls() {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "test/A", null, "java/lang/Object", null);
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PRIVATE, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+        mv.visitCode();
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(Opcodes.ACC_PRIVATE, "foo", "()V", null, null);
+        mv.visitCode();
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
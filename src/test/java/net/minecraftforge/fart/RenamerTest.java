@@ -0,0 +1,453 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package net.minecraftforge.fart;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import net.minecraftforge.fart.api.Renamer;
+import net.minecraftforge.fart.api.Transformer;
+
+public class RenamerTest {
+    /*
+     * class A { void foo() }
+     * interface B { void foo() }
+     * class C extends A implements B {}
+     * class D { void test(A a) { a.foo(); } }
+     *
+     * Only B.foo is mapped, but A.foo is what implements it in C, so the name is propagated up to A, and to anything calling A.foo.
+     * That happens when C is resolved, which has to happen before A or D are written, whatever order the classes are in.
+     */
+    @Test
+    public void propagatesMappingToInheritedMethods() throws IOException {
+        Map<String, byte[]> classes = new HashMap<>();
+        classes.put("test/A", cls("test/A", "java/lang/Object", Opcodes.ACC_PUBLIC, "foo"));
+        classes.put("test/B", cls("test/B", "java/lang/Object", Opcodes.ACC_PUBLIC | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT, "foo"));
+        classes.put("test/C", cls("test/C", "test/A", Opcodes.ACC_PUBLIC, null, "test/B"));
+        classes.put("test/D", caller("test/D", "test/A", "foo"));
+
+        File map = mapping("MD: test/B/foo ()V test/B/bar ()V");
+        try {
+            for (List<String> order : Arrays.asList(Arrays.asList("test/A", "test/B", "test/C", "test/D"), Arrays.asList("test/D", "test/C", "test/B", "test/A"))) {
+                for (int threads : new int[] { 1, 4 }) {
+                    Map<String, byte[]> out;
+                    try (Renamer.Session session = Renamer.builder().map(map).threads(threads).session()) {
+                        out = unzip(session.rename(jar(order, classes)));
+                    }
+                    String what = order + " on " + threads + " threads";
+                    assertEquals(Arrays.asList("<init>()V", "bar()V"), methods(out.get("test/A.class")), what);
+                    assertEquals(Arrays.asList("bar()V"), methods(out.get("test/B.class")), what);
+                    assertEquals(Arrays.asList("test/A.bar()V"), calls(out.get("test/D.class")), what);
+                }
+            }
+        } finally {
+            map.delete();
+        }
+    }
+
+    @Test
+    public void upToDateCheckIncludesExtraOutputs() throws IOException {
+        File dir = Files.createTempDirectory("fart").toFile();
+        File input = new File(dir, "input.jar");
+        File output = new File(dir, "output.jar");
+        File checksum = new File(dir, "output.jar.sha256");
+        File stats = new File(dir, "stats.txt");
+        File map = mapping("CL: test/A test/Alpha");
+        try {
+            Files.write(input.toPath(), jar(Arrays.asList("test/A"), Collections.singletonMap("test/A", cls("test/A", "java/lang/Object", Opcodes.ACC_PUBLIC, null))));
+            Renamer.builder().input(input).output(output).map(map).skipIfUpToDate(true).build().run();
+            assertTrue(output.exists());
+
+            // Asking for something new has to rerun, even though the input and mapping are the same.
+            Renamer.builder().input(input).output(output).map(map).skipIfUpToDate(true).checksum("sha256").build().run();
+            assertTrue(checksum.exists(), "Checksum was not written");
+
+            Renamer.builder().input(input).output(output).map(map).skipIfUpToDate(true).checksum("sha256").statsReport(stats).build().run();
+            assertTrue(stats.exists(), "Stats report was not written");
+
+            // And so does one of the extra outputs going missing.
+            assertTrue(checksum.delete());
+            Renamer.builder().input(input).output(output).map(map).skipIfUpToDate(true).checksum("sha256").statsReport(stats).build().run();
+            assertTrue(checksum.exists(), "Checksum was not written again");
+        } finally {
+            map.delete();
+            for (File file : dir.listFiles())
+                file.delete();
+            dir.delete();
+        }
+    }
+
+    /*
+     * class A { void foo() }
+     * class B extends A { void foo() } in the new input, and class B {} in the previous one.
+     *
+     * A didn't change, but the mapping for B.foo is now propagated up to it, so it can't be copied from the previous output.
+     */
+    @Test
+    public void incrementalUpdatesParentsOfChangedClasses() throws IOException {
+        File dir = Files.createTempDirectory("fart").toFile();
+        File previous = new File(dir, "previous.jar");
+        File input = new File(dir, "input.jar");
+        File output = new File(dir, "output.jar");
+        File map = mapping("MD: test/B/foo ()V test/B/bar ()V");
+        try {
+            Map<String, byte[]> classes = new HashMap<>();
+            classes.put("test/A", cls("test/A", "java/lang/Object", Opcodes.ACC_PUBLIC, "foo"));
+            classes.put("test/B", cls("test/B", "java/lang/Object", Opcodes.ACC_PUBLIC, null));
+            Files.write(previous.toPath(), jar(Arrays.asList("test/A", "test/B"), classes));
+            Renamer.builder().input(previous).output(output).map(map).incremental(previous, output).build().run();
+            assertEquals(Arrays.asList("<init>()V", "foo()V"), methods(unzip(Files.readAllBytes(output.toPath())).get("test/A.class")));
+
+            classes.put("test/B", cls("test/B", "test/A", Opcodes.ACC_PUBLIC, "foo"));
+            Files.write(input.toPath(), jar(Arrays.asList("test/A", "test/B"), classes));
+            Renamer.builder().input(input).output(output).map(map).incremental(previous, output).build().run();
+            Map<String, byte[]> out = unzip(Files.readAllBytes(output.toPath()));
+            assertEquals(Arrays.asList("<init>()V", "bar()V"), methods(out.get("test/A.class")));
+            assertEquals(Arrays.asList("<init>()V", "bar()V"), methods(out.get("test/B.class")));
+        } finally {
+            map.delete();
+            for (File file : dir.listFiles())
+                file.delete();
+            dir.delete();
+        }
+    }
+
+    // The input didn't change, but the mapping did, so nothing can be copied from the previous output.
+    @Test
+    public void incrementalChecksSettings() throws IOException {
+        File dir = Files.createTempDirectory("fart").toFile();
+        File input = new File(dir, "input.jar");
+        File output = new File(dir, "output.jar");
+        File map = new File(dir, "map.srg");
+        try {
+            Files.write(input.toPath(), jar(Arrays.asList("test/A"), Collections.singletonMap("test/A", cls("test/A", "java/lang/Object", Opcodes.ACC_PUBLIC, "foo"))));
+            Files.write(map.toPath(), Arrays.asList("MD: test/A/foo ()V test/A/bar ()V"), StandardCharsets.UTF_8);
+            Renamer.builder().input(input).output(output).map(map).incremental(input, output).build().run();
+            assertEquals(Arrays.asList("<init>()V", "bar()V"), methods(unzip(Files.readAllBytes(output.toPath())).get("test/A.class")));
+
+            Files.write(map.toPath(), Arrays.asList("MD: test/A/foo ()V test/A/baz ()V"), StandardCharsets.UTF_8);
+            Renamer.builder().input(input).output(output).map(map).incremental(input, output).build().run();
+            assertEquals(Arrays.asList("<init>()V", "baz()V"), methods(unzip(Files.readAllBytes(output.toPath())).get("test/A.class")));
+
+            // And the same for a new library, which A now inherits a mapped method from, through an interface that is only in the mapping.
+            File lib = new File(dir, "lib.jar");
+            Files.write(lib.toPath(), jar(Arrays.asList("test/L"), Collections.singletonMap("test/L", cls("test/L", "java/lang/Object", Opcodes.ACC_PUBLIC, null, "test/I"))));
+            Files.write(input.toPath(), jar(Arrays.asList("test/A"), Collections.singletonMap("test/A", cls("test/A", "test/L", Opcodes.ACC_PUBLIC, "foo"))));
+            Files.write(map.toPath(), Arrays.asList("MD: test/I/foo ()V test/I/qux ()V"), StandardCharsets.UTF_8);
+            Renamer.builder().input(input).output(output).map(map).incremental(input, output).build().run();
+            assertEquals(Arrays.asList("<init>()V", "foo()V"), methods(unzip(Files.readAllBytes(output.toPath())).get("test/A.class")));
+            Renamer.builder().input(input).output(output).map(map).lib(lib).incremental(input, output).build().run();
+            assertEquals(Arrays.asList("<init>()V", "qux()V"), methods(unzip(Files.readAllBytes(output.toPath())).get("test/A.class")));
+        } finally {
+            for (File file : dir.listFiles())
+                file.delete();
+            dir.delete();
+        }
+    }
+
+    // Jobs on other threads may be reading the mapped libraries, so close has to wait for them before unmapping anything.
+    @Test
+    public void closeWaitsForRunningJobs() throws Exception {
+        File lib = File.createTempFile("fart", ".jar");
+        File map = mapping("CL: test/A test/Alpha");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            Files.write(lib.toPath(), jar(Arrays.asList("test/L"), Collections.singletonMap("test/L", cls("test/L", "java/lang/Object", Opcodes.ACC_PUBLIC, null))));
+            byte[] input = jar(Arrays.asList("test/A"), Collections.singletonMap("test/A", cls("test/A", "test/L", Opcodes.ACC_PUBLIC, null)));
+            Transformer blocker = new Transformer() {
+                @Override
+                public ClassEntry process(ClassEntry entry) {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    return entry;
+                }
+            };
+
+            assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+                Renamer.Session session = Renamer.builder().lib(lib).add(blocker).map(map).threads(2).session();
+                AtomicReference<byte[]> out = new AtomicReference<>();
+                Thread job = new Thread(() -> out.set(session.rename(input)));
+                job.start();
+                started.await();
+
+                Thread closer = new Thread(session::close);
+                closer.start();
+                closer.join(200);
+                assertTrue(closer.isAlive(), "Session closed while a job was running");
+
+                release.countDown();
+                job.join();
+                closer.join();
+                assertNotNull(unzip(out.get()).get("test/Alpha.class"));
+                assertThrows(IllegalStateException.class, () -> session.rename(input));
+            });
+        } finally {
+            release.countDown();
+            map.delete();
+            lib.delete();
+        }
+    }
+
+    // The parameter names file is regenerated from the processed classes, so an excluded copy can't be kept as well.
+    @Test
+    public void excludedParameterNamesAreRegenerated() throws IOException {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT, "test/I", null, "java/lang/Object", null);
+        cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "foo", "(I)V", null, null).visitEnd();
+        cw.visitEnd();
+        Map<String, byte[]> entries = new java.util.LinkedHashMap<>();
+        entries.put("test/I.class", cw.toByteArray());
+        entries.put("fernflower_abstract_parameter_names.txt", "test/I foo (I)V old".getBytes(StandardCharsets.UTF_8));
+
+        File map = mapping("CL: test/A test/Alpha");
+        try (Renamer.Session session = Renamer.builder().map(map).include("test/").session()) {
+            Map<String, byte[]> out = unzip(session.rename(zip(entries)));
+            assertEquals("test/I foo (I)V var1", new String(out.get("fernflower_abstract_parameter_names.txt"), StandardCharsets.UTF_8));
+        } finally {
+            map.delete();
+        }
+    }
+
+    @Test
+    public void dropExcludedKeepsManifest() throws IOException {
+        Map<String, byte[]> entries = new java.util.LinkedHashMap<>();
+        entries.put("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+        entries.put("test/A.class", cls("test/A", "java/lang/Object", Opcodes.ACC_PUBLIC, null));
+        entries.put("other/B.class", cls("other/B", "java/lang/Object", Opcodes.ACC_PUBLIC, null));
+
+        File map = mapping("CL: test/A test/Alpha");
+        try (Renamer.Session session = Renamer.builder().map(map).include("test/").dropExcluded(true).session()) {
+            Map<String, byte[]> out = unzip(session.rename(zip(entries)));
+            assertNotNull(out.get("META-INF/MANIFEST.MF"), "Manifest was dropped");
+            assertNotNull(out.get("test/Alpha.class"));
+            assertNull(out.get("other/B.class"));
+        } finally {
+            map.delete();
+        }
+    }
+
+    /*
+     * Three nested jars that each have a nested jar of their own. Each nested jar is processed as its own job, so with two
+     * threads the jobs for the outer jars can fill up the pool while they wait for the jobs for their own nested jars.
+     */
+    @Test
+    public void nestedJarsInNestedJars() throws IOException {
+        File map = mapping("CL: test/A test/Alpha");
+        try {
+            byte[] cls = cls("test/A", "java/lang/Object", Opcodes.ACC_PUBLIC, null);
+            byte[] inner = zip(Collections.singletonMap("test/A.class", cls));
+            Map<String, byte[]> outer = new java.util.LinkedHashMap<>();
+            for (String name : new String[] { "a", "b", "c" }) {
+                Map<String, byte[]> entries = new java.util.LinkedHashMap<>();
+                entries.put("test/A.class", cls);
+                entries.put("META-INF/jarjar/inner.jar", inner);
+                outer.put("META-INF/jarjar/" + name + ".jar", zip(entries));
+            }
+            byte[] input = zip(outer);
+
+            assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+                Map<String, byte[]> out;
+                try (Renamer.Session session = Renamer.builder().map(map).threads(2).nestedJars(true).session()) {
+                    out = unzip(session.rename(input));
+                }
+                for (String name : new String[] { "a", "b", "c" }) {
+                    Map<String, byte[]> nested = unzip(out.get("META-INF/jarjar/" + name + ".jar"));
+                    assertNotNull(nested.get("test/Alpha.class"), name + ".jar was not renamed");
+                    assertNotNull(unzip(nested.get("META-INF/jarjar/inner.jar")).get("test/Alpha.class"), name + ".jar!inner.jar was not renamed");
+                }
+            });
+        } finally {
+            map.delete();
+        }
+    }
+
+    /*
+     * More nested jars than threads, with member mappings so resolving each jar prefetches its class hierarchy on the
+     * same pool the nested jar jobs run on. Closing a job's inheritance must not wait for prefetches queued behind it.
+     */
+    @Test
+    public void nestedJarsWithPrefetching() throws IOException {
+        File map = mapping("MD: test/C0/foo ()V test/C0/bar ()V");
+        try {
+            Map<String, byte[]> classes = new java.util.LinkedHashMap<>();
+            classes.put("test/C0.class", cls("test/C0", "java/lang/Object", Opcodes.ACC_PUBLIC, "foo"));
+            for (int x = 1; x < 200; x++)
+                classes.put("test/C" + x + ".class", cls("test/C" + x, "test/C" + (x - 1), Opcodes.ACC_PUBLIC, null));
+            byte[] nested = zip(classes);
+            Map<String, byte[]> outer = new java.util.LinkedHashMap<>();
+            for (int x = 0; x < 20; x++)
+                outer.put("META-INF/jarjar/" + x + ".jar", nested);
+            byte[] input = zip(outer);
+
+            assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+                Map<String, byte[]> out;
+                try (Renamer.Session session = Renamer.builder().map(map).threads(2).nestedJars(true).session()) {
+                    out = unzip(session.rename(input));
+                }
+                for (int x = 0; x < 20; x++) {
+                    Map<String, byte[]> jar = unzip(out.get("META-INF/jarjar/" + x + ".jar"));
+                    assertEquals(Arrays.asList("<init>()V", "bar()V"), methods(jar.get("test/C0.class")), x + ".jar was not renamed");
+                }
+            });
+        } finally {
+            map.delete();
+        }
+    }
+
+    static File mapping(String... lines) throws IOException {
+        File ret = File.createTempFile("fart", ".srg");
+        Files.write(ret.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+        return ret;
+    }
+
+    static byte[] cls(String name, String parent, int access, String method, String... interfaces) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, access, name, null, parent, interfaces);
+        if ((access & Opcodes.ACC_INTERFACE) == 0)
+            constructor(cw, parent);
+        if (method != null) {
+            boolean abs = (access & Opcodes.ACC_INTERFACE) != 0;
+            MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | (abs ? Opcodes.ACC_ABSTRACT : 0), method, "()V", null, null);
+            if (!abs) {
+                mv.visitCode();
+                mv.visitInsn(Opcodes.RETURN);
+                mv.visitMaxs(0, 0);
+            }
+            mv.visitEnd();
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    // A class with a single method that calls the given method on an instance of owner.
+    static byte[] caller(String name, String owner, String method) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        constructor(cw, "java/lang/Object");
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "test", "(L" + owner + ";)V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, owner, method, "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void constructor(ClassWriter cw, String parent) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, parent, "<init>", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    static byte[] jar(List<String> order, Map<String, byte[]> classes) throws IOException {
+        Map<String, byte[]> entries = new java.util.LinkedHashMap<>();
+        for (String name : order)
+            entries.put(name + ".class", classes.get(name));
+        return zip(entries);
+    }
+
+    static byte[] zip(Map<String, byte[]> entries) throws IOException {
+        ByteArrayOutputStream ret = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(ret)) {
+            for (Map.Entry<String, byte[]> e : entries.entrySet()) {
+                zos.putNextEntry(new ZipEntry(e.getKey()));
+                zos.write(e.getValue());
+                zos.closeEntry();
+            }
+        }
+        return ret.toByteArray();
+    }
+
+    static Map<String, byte[]> unzip(byte[] data) throws IOException {
+        Map<String, byte[]> ret = new HashMap<>();
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(data))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                if (entry.isDirectory())
+                    continue;
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buf = new byte[0x1000];
+                int len;
+                while ((len = zis.read(buf)) != -1)
+                    out.write(buf, 0, len);
+                ret.put(entry.getName(), out.toByteArray());
+            }
+        }
+        return ret;
+    }
+
+    static ClassNode node(byte[] data) {
+        assertNotNull(data, "Missing class");
+        ClassNode ret = new ClassNode();
+        new ClassReader(data).accept(ret, 0);
+        return ret;
+    }
+
+    private static List<String> methods(byte[] data) {
+        return node(data).methods.stream().map(m -> m.name + m.desc).sorted().collect(Collectors.toList());
+    }
+
+    private static List<String> calls(byte[] data) {
+        return node(data).methods.stream().filter(m -> !m.name.equals("<init>"))
+            .flatMap((MethodNode m) -> Arrays.stream(m.instructions.toArray()))
+            .filter((AbstractInsnNode i) -> i instanceof MethodInsnNode).map(i -> (MethodInsnNode)i)
+            .map(i -> i.owner + '.' + i.name + i.desc).collect(Collectors.toList());
+    }
+}
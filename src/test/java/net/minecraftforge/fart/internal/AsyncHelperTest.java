@@ -0,0 +1,76 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package net.minecraftforge.fart.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class AsyncHelperTest {
+    private static final long ITEM = 0x10000;
+
+    @Test
+    public void failureReturnsMemoryBudget() {
+        // Room for a single item at a time, so if any permits leak the second run can never start.
+        MemoryBudget budget = MemoryBudget.create(ITEM * 3);
+        AsyncHelper async = new AsyncHelper(4, null, null, budget);
+        try {
+            List<Integer> inputs = range(20);
+            assertThrows(RuntimeException.class, () -> async.invokeAll(inputs, i -> ITEM, i -> {
+                if (i == 0)
+                    throw new IllegalStateException("Expected failure");
+                return i;
+            }));
+
+            assertTimeoutPreemptively(Duration.ofSeconds(30), () -> assertEquals(inputs, async.invokeAll(inputs, i -> ITEM, i -> i)));
+        } finally {
+            async.shutdown();
+        }
+    }
+
+    @Test
+    public void failureStopsSubmitting() {
+        MemoryBudget budget = MemoryBudget.create(ITEM * 3);
+        AsyncHelper async = new AsyncHelper(1, null, null, budget);
+        try {
+            AtomicInteger ran = new AtomicInteger(0);
+            assertThrows(RuntimeException.class, () -> async.invokeAll(range(100), i -> ITEM, i -> {
+                ran.incrementAndGet();
+                throw new IllegalStateException("Expected failure");
+            }));
+            assertTrue(ran.get() < 5, "Kept running tasks after the first failure: " + ran.get());
+        } finally {
+            async.shutdown();
+        }
+    }
+
+    private static List<Integer> range(int count) {
+        List<Integer> ret = new ArrayList<>();
+        for (int x = 0; x < count; x++)
+            ret.add(x);
+        return ret;
+    }
+}
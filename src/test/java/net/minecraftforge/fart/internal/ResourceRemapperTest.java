@@ -0,0 +1,130 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package net.minecraftforge.fart.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+import net.minecraftforge.srgutils.IMappingFile;
+
+public class ResourceRemapperTest {
+    private static final ResourceRemapper REMAPPER = remapper(
+        "CL: a net/minecraft/world/World",
+        "CL: b net/minecraft/world/Level",
+        "CL: com/example/Foo com/example/Bar"
+    );
+
+    @Test
+    public void replacesQualifiedNames() {
+        assertEquals("com/example/Bar", remap("com/example/Foo"));
+        assertEquals("com.example.Bar", remap("com.example.Foo"));
+        assertEquals("\"target\": \"com.example.Bar\", \"other\": \"com/example/Bar\"", remap("\"target\": \"com.example.Foo\", \"other\": \"com/example/Foo\""));
+    }
+
+    @Test
+    public void skipsPartialNames() {
+        assertEquals("x.com.example.Foo", remap("x.com.example.Foo"));
+        assertEquals("com.example.FooBar", remap("com.example.FooBar"));
+        assertEquals("xcom/example/Foo", remap("xcom/example/Foo"));
+        // An L that is part of a word is not a descriptor.
+        assertEquals("ALcom/example/Foo;", remap("ALcom/example/Foo;"));
+    }
+
+    @Test
+    public void skipsBareNamesInText() {
+        // Obfuscated names in the default package are also common words, so don't touch them in free text.
+        assertEquals("# Make a field public, b is the target\npublic b f_1234_ # a comment", remap("# Make a field public, b is the target\npublic b f_1234_ # a comment"));
+        assertEquals("{\"mixins\":[\"a\"],\"refmap\":\"b.refmap.json\"}", remap("{\"mixins\":[\"a\"],\"refmap\":\"b.refmap.json\"}"));
+        assertNull(REMAPPER.remap(bytes("a b")));
+    }
+
+    @Test
+    public void replacesBareNamesInDescriptors() {
+        assertEquals("(Lnet/minecraft/world/World;I)V", remap("(La;I)V"));
+        assertEquals("(ILnet/minecraft/world/World;)V", remap("(ILa;)V"));
+        assertEquals("[Lnet/minecraft/world/Level;", remap("[Lb;"));
+        assertEquals("(Lnet/minecraft/world/World;Lnet/minecraft/world/Level;)Lcom/example/Bar;", remap("(La;Lb;)Lcom/example/Foo;"));
+        assertEquals("public b m_1234_(Lnet/minecraft/world/World;)V", remap("public b m_1234_(La;)V"));
+        // Descriptors need the terminating semicolon, and an L at the end of a word is just a letter.
+        assertEquals("La", remap("La"));
+        assertEquals("XLa;", remap("XLa;"));
+        assertEquals("ALa/b/C;", remap("ALa/b/C;"));
+    }
+
+    @Test
+    public void replacesBareNamesOnTheirOwnLine() {
+        assertEquals("net.minecraft.world.World\n# b\nnet.minecraft.world.Level # impl\r\ncom.example.Bar\n", remapLines("a\n# b\nb # impl\r\ncom.example.Foo\n"));
+        assertEquals("a b\nab\n", remapLines("a b\nab\n"));
+        assertEquals("net.minecraft.world.Level", REMAPPER.remapLines("b"));
+    }
+
+    @Test
+    public void replacesInnerClassesOfRenamedClasses() {
+        // Inner classes are renamed with their outer class, even though the mapping only has the outer class.
+        assertEquals("com/example/Bar$Inner", remap("com/example/Foo$Inner"));
+        assertEquals("{\"target\": \"com.example.Bar$Inner$1\"}", remap("{\"target\": \"com.example.Foo$Inner$1\"}"));
+        assertEquals("(Lnet/minecraft/world/World$b;)V", remap("(La$b;)V"));
+        assertEquals("net.minecraft.world.World$b\n", remapLines("a$b\n"));
+        // But not classes that only start with the same name.
+        assertNull(REMAPPER.remap(bytes("com/example/FooBar$Inner com.example.Foo$Inner.field a$b")));
+    }
+
+    @Test
+    public void remapsManifest() {
+        String manifest = "Manifest-Version: 1.0\r\nMain-Class: a\r\nImplementation-Title: a\r\n\r\n";
+        assertEquals("Manifest-Version: 1.0\r\nMain-Class: net.minecraft.world.World\r\nImplementation-Title: a\r\n\r\n",
+            new String(REMAPPER.remapManifest(bytes(manifest)), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void returnsNullWhenUnchanged() {
+        assertNull(REMAPPER.remap(bytes("nothing to see here")));
+        assertNull(REMAPPER.remapLines(bytes("com.example.Baz\n")));
+    }
+
+    private static String remap(String value) {
+        byte[] ret = REMAPPER.remap(bytes(value));
+        return ret == null ? value : new String(ret, StandardCharsets.UTF_8);
+    }
+
+    private static String remapLines(String value) {
+        return REMAPPER.remapLines(value);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static ResourceRemapper remapper(String... lines) {
+        try {
+            IMappingFile map = IMappingFile.load(new ByteArrayInputStream(bytes(String.join("\n", lines))));
+            return new ResourceRemapper(CompletableFuture.completedFuture(map));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Forge Auto Renaming Tool
+ * Copyright (c) 2021
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation version 2.1
+ * of the License.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+
+package net.minecraftforge.fart.internal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+public class ZipArchiveTest {
+    private static final byte[] HELLO = "Hello World, Hello World, Hello World".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void readsDataDescriptors() throws IOException {
+        // ZipOutputStream can't seek back, so deflated entries have their sizes in a data descriptor after the data.
+        byte[] zip = zip("a.txt", HELLO, "b/c.txt", new byte[0]);
+        assertEquals(0x08, zip[6] & 0x08, "Expected the data descriptor flag to be set");
+
+        ZipArchive archive = ZipArchive.wrap("test", zip);
+        assertEquals(2, archive.getEntries().size());
+        assertArrayEquals(HELLO, archive.getEntry("a.txt").toByteArray());
+        assertEquals(HELLO.length, archive.getEntry("a.txt").getSize());
+        assertArrayEquals(new byte[0], archive.getEntry("b/c.txt").toByteArray());
+    }
+
+    @Test
+    public void readsMappedArchives() throws IOException {
+        Path file = Files.createTempFile("fart", ".zip");
+        try {
+            Files.write(file, zip("a.txt", HELLO, "stored.txt", null));
+            try (ZipArchive archive = ZipArchive.map(file)) {
+                assertArrayEquals(HELLO, archive.getEntry("a.txt").toByteArray());
+                assertArrayEquals(HELLO, archive.getEntry("stored.txt").toByteArray());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void closeReleasesMapping() throws IOException {
+        Path file = Files.createTempFile("fart", ".zip");
+        try {
+            Files.write(file, zip("a.txt", HELLO));
+            ZipArchive archive = ZipArchive.map(file);
+            ZipArchive.Entry entry = archive.getEntry("a.txt");
+            assertArrayEquals(HELLO, entry.toByteArray());
+            archive.close();
+            assertThrows(ZipException.class, entry::toByteArray);
+
+            Path maps = Paths.get("/proc/self/maps");
+            if (Files.exists(maps)) {
+                String mapped = new String(Files.readAllBytes(maps), StandardCharsets.UTF_8);
+                assertFalse(mapped.contains(file.toAbsolutePath().toString()), "Archive is still mapped");
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void readsZip64EndOfCentralDirectory() throws IOException {
+        // More entries than fit in the normal end record, so the count is in the Zip64 one.
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(bytes)) {
+            for (int x = 0; x < 0x10000 + 10; x++) {
+                zos.putNextEntry(new ZipEntry("e" + x));
+                zos.write(Integer.toString(x).getBytes(StandardCharsets.UTF_8));
+                zos.closeEntry();
+            }
+        }
+        byte[] zip = bytes.toByteArray();
+        assertEquals(0xFFFF, le(zip).getShort(zip.length - 22 + 10) & 0xFFFF, "Expected the Zip64 end record to be used");
+
+        ZipArchive archive = ZipArchive.wrap("test", zip);
+        assertEquals(0x10000 + 10, archive.getEntries().size());
+        assertEquals("e65545", archive.getEntries().get(65545).getName());
+        assertArrayEquals("65545".getBytes(StandardCharsets.UTF_8), archive.getEntry("e65545").toByteArray());
+    }
+
+    @Test
+    public void readsZip64ExtraField() throws IOException {
+        byte[] zip = zip64Stored("a.txt", HELLO);
+        ZipArchive archive = ZipArchive.wrap("test", zip);
+        ZipArchive.Entry entry = archive.getEntry("a.txt");
+        assertEquals(HELLO.length, entry.getSize());
+        assertEquals(HELLO.length, entry.getCompressedSize());
+        assertArrayEquals(HELLO, entry.toByteArray());
+    }
+
+    @Test
+    public void rejectsTruncatedArchives() throws IOException {
+        byte[] zip = zip("a.txt", HELLO, "b.txt", HELLO);
+        for (int len : new int[] { 0, 10, zip.length / 2, zip.length - 10, zip.length - 1 }) {
+            byte[] cut = Arrays.copyOf(zip, len);
+            assertThrows(ZipException.class, () -> ZipArchive.wrap("test", cut), "Truncated to " + len);
+        }
+    }
+
+    @Test
+    public void rejectsTruncatedCentralDirectory() throws IOException {
+        // Drop the end of the central directory, but keep the end record pointing at it.
+        byte[] zip = zip("a.txt", HELLO, "b.txt", HELLO);
+        int end = zip.length - 22;
+        byte[] cut = new byte[zip.length - 10];
+        System.arraycopy(zip, 0, cut, 0, end - 10);
+        System.arraycopy(zip, end, cut, end - 10, 22);
+        assertThrows(ZipException.class, () -> ZipArchive.wrap("test", cut));
+    }
+
+    @Test
+    public void rejectsCorruptCentralDirectory() throws IOException {
+        byte[] zip = zip("a.txt", HELLO, "b.txt", HELLO);
+        int end = zip.length - 22;
+        int cen = le(zip).getInt(end + 16);
+        int second = cen + 46 + "a.txt".length();
+
+        // Wrong signature on the second entry
+        byte[] sig = zip.clone();
+        sig[second] = 0;
+        assertThrows(ZipException.class, () -> ZipArchive.wrap("test", sig));
+
+        // A name that runs past the end of the central directory
+        byte[] name = zip.clone();
+        le(name).putShort(second + 28, (short)0xFFFF);
+        assertThrows(ZipException.class, () -> ZipArchive.wrap("test", name));
+
+        // More entries than the central directory can hold
+        byte[] count = zip.clone();
+        le(count).putShort(end + 8, (short)0xFFFE).putShort(end + 10, (short)0xFFFE);
+        assertThrows(ZipException.class, () -> ZipArchive.wrap("test", count));
+
+        // Central directory past the end of the file
+        byte[] offset = zip.clone();
+        le(offset).putInt(end + 16, zip.length);
+        assertThrows(ZipException.class, () -> ZipArchive.wrap("test", offset));
+    }
+
+    @Test
+    public void rejectsInvalidLocalHeader() throws IOException {
+        byte[] zip = zip("a.txt", HELLO);
+        int cen = le(zip).getInt(zip.length - 22 + 16);
+
+        byte[] past = zip.clone();
+        le(past).putInt(cen + 42, zip.length - 4);
+        ZipArchive archive = ZipArchive.wrap("test", past);
+        assertThrows(ZipException.class, () -> archive.getEntry("a.txt").toByteArray());
+
+        byte[] sig = zip.clone();
+        sig[0] = 0;
+        ZipArchive archive2 = ZipArchive.wrap("test", sig);
+        assertThrows(ZipException.class, () -> archive2.getEntry("a.txt").toByteArray());
+    }
+
+    /**
+     * Name and data pairs, null data makes an empty stored entry.
+     */
+    private static byte[] zip(Object... entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(bytes)) {
+            for (int x = 0; x < entries.length; x += 2) {
+                ZipEntry entry = new ZipEntry((String)entries[x]);
+                byte[] data = (byte[])entries[x + 1];
+                if (data == null) {
+                    data = HELLO;
+                    CRC32 crc = new CRC32();
+                    crc.update(data);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(data.length);
+                    entry.setCrc(crc.getValue());
+                }
+                zos.putNextEntry(entry);
+                zos.write(data);
+                zos.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    // A single stored entry whose sizes and offset are only in the Zip64 extra field, like archives larger than 4GB have.
+    private static byte[] zip64Stored(String name, byte[] data) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ByteBuffer buf = le(new byte[30 + nameBytes.length + 20 + data.length + 46 + nameBytes.length + 28 + 22]);
+
+        buf.putInt(0x04034b50).putShort((short)45).putShort((short)0).putShort((short)0).putInt(0)
+            .putInt((int)crc.getValue()).putInt(-1).putInt(-1).putShort((short)nameBytes.length).putShort((short)20)
+            .put(nameBytes).putShort((short)1).putShort((short)16).putLong(data.length).putLong(data.length).put(data);
+
+        int cen = buf.position();
+        buf.putInt(0x02014b50).putShort((short)45).putShort((short)45).putShort((short)0).putShort((short)0).putInt(0)
+            .putInt((int)crc.getValue()).putInt(-1).putInt(-1).putShort((short)nameBytes.length).putShort((short)28)
+            .putShort((short)0).putShort((short)0).putShort((short)0).putInt(0).putInt(-1)
+            .put(nameBytes).putShort((short)1).putShort((short)24).putLong(data.length).putLong(data.length).putLong(0);
+
+        int cenSize = buf.position() - cen;
+        buf.putInt(0x06054b50).putShort((short)0).putShort((short)0).putShort((short)1).putShort((short)1)
+            .putInt(cenSize).putInt(cen).putShort((short)0);
+        return buf.array();
+    }
+
+    private static ByteBuffer le(byte[] data) {
+        return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}